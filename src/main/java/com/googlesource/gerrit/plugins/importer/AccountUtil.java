@@ -25,6 +25,9 @@ import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.extensions.restapi.ResourceNotFoundException;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.TopLevelResource;
+import com.google.gerrit.metrics.Counter0;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.MetricMaker;
 import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.server.account.AccountCache;
 import com.google.gerrit.server.account.AccountException;
@@ -57,6 +60,10 @@ class AccountUtil {
   private final com.google.gerrit.extensions.api.GerritApi gApi;
   private final VersionedAuthorizedKeys.Accessor authorizedKeys;
   private final CreateAccount.Factory createAccountFactory;
+  private final Counter0 hits;
+  private final Counter0 misses;
+
+  private final ResolvedAccounts resolved = new ResolvedAccounts();
 
   @Inject
   public AccountUtil(
@@ -65,15 +72,35 @@ class AccountUtil {
       AuthConfig authConfig,
       com.google.gerrit.extensions.api.GerritApi gApi,
       VersionedAuthorizedKeys.Accessor authorizedKeys,
-      CreateAccount.Factory createAccountFactory) {
+      CreateAccount.Factory createAccountFactory,
+      MetricMaker metrics) {
     this.accountCache = accountCache;
     this.accountManager = accountManager;
     this.authType = authConfig.getAuthType();
     this.gApi = gApi;
     this.authorizedKeys = authorizedKeys;
     this.createAccountFactory = createAccountFactory;
+    this.hits =
+        metrics.newCounter(
+            "account_resolution/hit_count",
+            new Description("Users of an import that were resolved from the cache")
+                .setRate()
+                .setUnit("lookups"));
+    this.misses =
+        metrics.newCounter(
+            "account_resolution/miss_count",
+            new Description("Users of an import that were looked up in the account cache")
+                .setRate()
+                .setUnit("lookups"));
   }
 
+  /**
+   * Returns the account in the target system for a user of the source system, the account is
+   * created if it doesn't exist.
+   *
+   * <p>The same users appear in many messages, comments, votes and patch sets, hence the resolved
+   * accounts are cached for the import and repeated lookups don't hit the account cache.
+   */
   Account.Id resolveUser(GerritApi api, AccountInfo acc)
       throws NoSuchAccountException, IOException, OrmException, RestApiException,
           ConfigInvalidException {
@@ -83,24 +110,25 @@ class AccountUtil {
               "User %s <%s> (%s) doesn't have a username and cannot be looked up.",
               acc.name, acc.email, acc._accountId));
     }
+    Account.Id id = resolved.get(api, acc.username);
+    if (id != null) {
+      hits.increment();
+      return id;
+    }
+    misses.increment();
+    // concurrent replays may both miss, then the lookup is just repeated
+    id = lookupUser(api, acc);
+    resolved.put(api, acc.username, id);
+    return id;
+  }
+
+  private Account.Id lookupUser(GerritApi api, AccountInfo acc)
+      throws NoSuchAccountException, IOException, OrmException, RestApiException,
+          ConfigInvalidException {
     AccountState a = accountCache.getByUsername(acc.username);
 
     if (a == null) {
-      switch (authType) {
-        case HTTP_LDAP:
-        case CLIENT_SSL_CERT_LDAP:
-        case LDAP:
-          return createAccountByLdapAndAddSshKeys(api, acc);
-        case CUSTOM_EXTENSION:
-        case DEVELOPMENT_BECOME_ANY_ACCOUNT:
-        case HTTP:
-        case LDAP_BIND:
-        case OAUTH:
-        case OPENID:
-        case OPENID_SSO:
-        default:
-          return createLocalUser(acc);
-      }
+      return createUser(api, acc);
     }
     if (!Objects.equals(a.getAccount().getPreferredEmail(), acc.email)) {
       log.warn(
@@ -111,6 +139,37 @@ class AccountUtil {
     return a.getAccount().getId();
   }
 
+  /**
+   * Creates the account for a user that doesn't exist in the target system.
+   *
+   * <p>Changes may be replayed concurrently, hence account creation is serialized and the lookup is
+   * repeated, so that a user who appears in several changes is only created once.
+   */
+  private synchronized Account.Id createUser(GerritApi api, AccountInfo acc)
+      throws NoSuchAccountException, IOException, OrmException, RestApiException,
+          ConfigInvalidException {
+    AccountState a = accountCache.getByUsername(acc.username);
+    if (a != null) {
+      return a.getAccount().getId();
+    }
+
+    switch (authType) {
+      case HTTP_LDAP:
+      case CLIENT_SSL_CERT_LDAP:
+      case LDAP:
+        return createAccountByLdapAndAddSshKeys(api, acc);
+      case CUSTOM_EXTENSION:
+      case DEVELOPMENT_BECOME_ANY_ACCOUNT:
+      case HTTP:
+      case LDAP_BIND:
+      case OAUTH:
+      case OPENID:
+      case OPENID_SSO:
+      default:
+        return createLocalUser(acc);
+    }
+  }
+
   private Account.Id createAccountByLdapAndAddSshKeys(GerritApi api, AccountInfo acc)
       throws NoSuchAccountException, IOException, OrmException, RestApiException,
           ConfigInvalidException {
@@ -0,0 +1,106 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import com.google.gerrit.common.data.GlobalCapability;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the number of changes that are requested per page of the change listing.
+ *
+ * <p>After each page the size of the next page is derived from the observed response size, the
+ * time it took to decode the response and the latency of the source system. Pages of huge changes
+ * are made smaller, so that a request neither times out nor exhausts memory. Pages of small changes
+ * are made larger until decoding a page takes a multiple of the latency, so that round trips don't
+ * dominate. From one page to the next the size at most doubles or halves, and it never leaves the
+ * configured bounds.
+ */
+class AdaptivePageSize {
+  static final int DEFAULT_MIN = 10;
+  static final int DEFAULT_MAX = GlobalCapability.DEFAULT_MAX_QUERY_LIMIT;
+
+  /** Largest upper bound for the page size that can be configured. */
+  static final int LIMIT = 5000;
+
+  private static final int INITIAL = 100;
+  private static final long TARGET_BYTES = 16 * 1024 * 1024;
+  private static final long MIN_TARGET_DECODE_MS = TimeUnit.SECONDS.toMillis(1);
+  private static final long MAX_TARGET_DECODE_MS = TimeUnit.SECONDS.toMillis(10);
+  private static final int LATENCY_FACTOR = 4;
+
+  private final int min;
+  private final int max;
+  private int size;
+  private int pages;
+  private int smallest;
+  private int largest;
+
+  AdaptivePageSize(int min, int max) {
+    checkArgument(0 < min && min <= max, "invalid page size bounds: %s..%s", min, max);
+    this.min = min;
+    this.max = max;
+    this.size = clamp(INITIAL);
+  }
+
+  /** Returns the number of changes that should be requested for the next page. */
+  int get() {
+    return size;
+  }
+
+  /**
+   * Records the observations for a page that was requested with the current size and adapts the
+   * size for the next page.
+   *
+   * @param changes the number of changes that the page contained
+   * @param bytes the size of the response, 0 if unknown
+   * @param latencyMs the time until the source system started to respond
+   * @param decodeMs the time it took to receive and decode the changes of the page
+   */
+  void update(int changes, long bytes, long latencyMs, long decodeMs) {
+    pages++;
+    smallest = pages == 1 ? size : Math.min(smallest, size);
+    largest = Math.max(largest, size);
+    if (changes == 0) {
+      return;
+    }
+
+    double next = max;
+    if (bytes > 0) {
+      next = Math.min(next, (double) TARGET_BYTES * changes / bytes);
+    }
+    if (decodeMs > 0) {
+      long targetMs =
+          Math.max(
+              MIN_TARGET_DECODE_MS, Math.min(MAX_TARGET_DECODE_MS, LATENCY_FACTOR * latencyMs));
+      next = Math.min(next, (double) targetMs * changes / decodeMs);
+    }
+    size = clamp((int) Math.max(size / 2, Math.min(2L * size, (long) next)));
+  }
+
+  private int clamp(int n) {
+    return Math.max(min, Math.min(max, n));
+  }
+
+  @Override
+  public String toString() {
+    if (pages == 0) {
+      return "no pages";
+    }
+    String sizes = smallest == largest ? "" + smallest : smallest + "-" + largest;
+    return String.format("%d pages of %s changes", pages, sizes);
+  }
+}
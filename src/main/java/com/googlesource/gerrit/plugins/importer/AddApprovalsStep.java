@@ -26,7 +26,6 @@ import com.google.gerrit.reviewdb.client.Account;
 import com.google.gerrit.reviewdb.client.Change;
 import com.google.gerrit.reviewdb.client.PatchSetApproval;
 import com.google.gerrit.reviewdb.server.ReviewDb;
-import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.notedb.ChangeUpdate;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.query.change.ChangeData;
@@ -35,7 +34,9 @@ import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.slf4j.Logger;
@@ -44,37 +45,35 @@ import org.slf4j.LoggerFactory;
 class AddApprovalsStep {
 
   interface Factory {
-    AddApprovalsStep create(Change change, ChangeInfo changeInfo, boolean resume);
+    AddApprovalsStep create(
+        Change change, ChangeInfo changeInfo, ChangeUpdateBatch updates, boolean resume);
   }
 
   private static final Logger log = LoggerFactory.getLogger(ReplayInlineCommentsStep.class);
 
   private final AccountUtil accountUtil;
-  private final ChangeUpdate.Factory updateFactory;
   private final ReviewDb db;
-  private final IdentifiedUser.GenericFactory genericUserFactory;
   private final ChangeData.Factory changeDataFactory;
   private final Change change;
   private final ChangeInfo changeInfo;
+  private final ChangeUpdateBatch updates;
   private final boolean resume;
 
   @Inject
   public AddApprovalsStep(
       AccountUtil accountUtil,
-      ChangeUpdate.Factory updateFactory,
       ReviewDb db,
-      IdentifiedUser.GenericFactory genericUserFactory,
       ChangeData.Factory changeDataFactory,
       @Assisted Change change,
       @Assisted ChangeInfo changeInfo,
+      @Assisted ChangeUpdateBatch updates,
       @Assisted boolean resume) {
     this.accountUtil = accountUtil;
-    this.updateFactory = updateFactory;
     this.db = db;
-    this.genericUserFactory = genericUserFactory;
     this.changeDataFactory = changeDataFactory;
     this.change = change;
     this.changeInfo = changeInfo;
+    this.updates = updates;
     this.resume = resume;
   }
 
@@ -86,13 +85,14 @@ class AddApprovalsStep {
     }
 
     List<PatchSetApproval> approvals = new ArrayList<>();
+    Map<Account.Id, ChangeUpdate> updatesByUser = new HashMap<>();
+    ChangeData cd = changeDataFactory.create(db, updates.notes());
     for (Entry<String, LabelInfo> e : changeInfo.labels.entrySet()) {
       String labelName = e.getKey();
       LabelInfo label = e.getValue();
       if (label.all != null) {
         for (ApprovalInfo a : label.all) {
           Account.Id user = accountUtil.resolveUser(api, a);
-          ChangeData cd = changeDataFactory.create(db, change);
           LabelType labelType = cd.getLabelTypes().byLabel(labelName);
           if (labelType == null) {
             log.warn(
@@ -113,13 +113,17 @@ class AddApprovalsStep {
                       change.currentPatchSetId(), user, labelType.getLabelId()),
                   shortValue,
                   MoreObjects.firstNonNull(a.date, TimeUtil.nowTs())));
-          ChangeUpdate update = updateFactory.create(cd.notes(), genericUserFactory.create(user));
+          // all votes of a user are recorded by one update
+          ChangeUpdate update = updatesByUser.get(user);
+          if (update == null) {
+            update = updates.newUpdate(user);
+            updatesByUser.put(user, update);
+          }
           if (shortValue != 0) {
             update.putApproval(labelName, shortValue);
           } else {
             update.removeApproval(labelName);
           }
-          update.commit();
         }
       }
     }
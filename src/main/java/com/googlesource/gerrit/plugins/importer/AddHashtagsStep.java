@@ -24,7 +24,6 @@ import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.CurrentUser;
 import com.google.gerrit.server.change.ChangeTriplet;
 import com.google.gerrit.server.change.SetHashtagsOp;
-import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gerrit.server.update.BatchUpdate;
 import com.google.gerrit.server.update.UpdateException;
@@ -39,15 +38,16 @@ import org.slf4j.LoggerFactory;
 class AddHashtagsStep {
 
   interface Factory {
-    AddHashtagsStep create(Change change, ChangeInfo changeInfo, boolean resume);
+    AddHashtagsStep create(
+        Change change, ChangeInfo changeInfo, ChangeUpdateBatch updates, boolean resume);
   }
 
   private static final Logger log = LoggerFactory.getLogger(AddHashtagsStep.class);
 
   private final CurrentUser currentUser;
-  private final ChangeNotes.Factory changeNotesFactory;
   private final Change change;
   private final ChangeInfo changeInfo;
+  private final ChangeUpdateBatch updates;
   private final boolean resume;
   private final Provider<ReviewDb> db;
   private final BatchUpdate.Factory batchUpdateFactory;
@@ -56,50 +56,42 @@ class AddHashtagsStep {
   @Inject
   AddHashtagsStep(
       CurrentUser currentUser,
-      ChangeNotes.Factory changeNotesFactory,
       Provider<ReviewDb> db,
       BatchUpdate.Factory batchUpdateFactory,
       SetHashtagsOp.Factory hashtagsFactory,
       @Assisted Change change,
       @Assisted ChangeInfo changeInfo,
+      @Assisted ChangeUpdateBatch updates,
       @Assisted boolean resume) {
     this.currentUser = currentUser;
-    this.changeNotesFactory = changeNotesFactory;
     this.db = db;
     this.batchUpdateFactory = batchUpdateFactory;
     this.hashtagsFactory = hashtagsFactory;
     this.change = change;
     this.changeInfo = changeInfo;
+    this.updates = updates;
     this.resume = resume;
   }
 
   void add()
       throws IllegalArgumentException, OrmException, NoSuchChangeException, UpdateException,
           RestApiException {
+    HashtagsInput input = new HashtagsInput();
+    input.add = new HashSet<>(changeInfo.hashtags);
+    if (resume) {
+      // hashtags are replaced by a single update
+      input.remove = new HashSet<>(updates.notes().load().getHashtags());
+      input.remove.removeAll(input.add);
+    }
+    if (input.add.isEmpty() && (input.remove == null || input.remove.isEmpty())) {
+      return;
+    }
 
-    ChangeNotes notes = changeNotesFactory.createChecked(db.get(), change);
-
-    try {
-      if (resume) {
-        HashtagsInput input = new HashtagsInput();
-        input.remove = notes.load().getHashtags();
-        try (BatchUpdate bu =
-            batchUpdateFactory.create(
-                db.get(), change.getProject(), currentUser, TimeUtil.nowTs())) {
-          SetHashtagsOp op = hashtagsFactory.create(input);
-          bu.addOp(change.getId(), op);
-          bu.execute();
-        }
-      }
-
-      HashtagsInput input = new HashtagsInput();
-      input.add = new HashSet<>(changeInfo.hashtags);
-      try (BatchUpdate bu =
-          batchUpdateFactory.create(db.get(), change.getProject(), currentUser, TimeUtil.nowTs())) {
-        SetHashtagsOp op = hashtagsFactory.create(input);
-        bu.addOp(change.getId(), op);
-        bu.execute();
-      }
+    try (BatchUpdate bu =
+        batchUpdateFactory.create(db.get(), change.getProject(), currentUser, TimeUtil.nowTs())) {
+      SetHashtagsOp op = hashtagsFactory.create(input);
+      bu.addOp(change.getId(), op);
+      bu.execute();
     } catch (AuthException e) {
       log.warn(
           String.format(
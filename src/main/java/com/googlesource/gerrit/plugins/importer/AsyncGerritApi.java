@@ -0,0 +1,68 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommentInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gwtorm.server.OrmException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous counterpart of {@link GerritApi} for the requests of the change replay, see {@link
+ * GerritApi#async(java.util.concurrent.Executor)}.
+ *
+ * <p>The requests are sent without blocking the calling thread, so that they are in flight while
+ * the calling thread replays the changes. The returned futures complete exceptionally with the
+ * exceptions that the corresponding {@link GerritApi} methods throw, {@link #await(Future)}
+ * rethrows them.
+ */
+interface AsyncGerritApi {
+
+  /**
+   * Retrieves the changes with the given numbers with all details, see {@link
+   * GerritApi#getChanges(Collection)}.
+   */
+  CompletableFuture<List<ChangeInfo>> getChanges(Collection<Integer> changeNumbers);
+
+  /** See {@link GerritApi#getComments(int)}. */
+  CompletableFuture<ListMultimap<Integer, CommentInfo>> getComments(int changeId);
+
+  /**
+   * Waits for the result of a request and rethrows the exception with which the request failed.
+   */
+  static <T> T await(Future<T> result) throws BadRequestException, IOException, OrmException {
+    try {
+      return result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the source system");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), BadRequestException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), OrmException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+  }
+}
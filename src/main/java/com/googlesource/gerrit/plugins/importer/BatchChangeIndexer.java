@@ -0,0 +1,159 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.index.change.ChangeIndexer;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Provider;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.eclipse.jgit.lib.ProgressMonitor;
+
+/**
+ * Indexes replayed changes in batches, off the replay path.
+ *
+ * <p>Changes are collected and each full batch is indexed on a separate thread pool. Changes are
+ * not visible in search until their batch was indexed. {@link #finish(ProgressMonitor)} indexes
+ * the remaining changes and waits until all batches are done.
+ *
+ * <p>The progress of the indexing can be polled without waiting: {@link #getIndexed()} returns up
+ * to which of the added changes all changes are indexed.
+ */
+class BatchChangeIndexer implements AutoCloseable {
+  static final int BATCH_SIZE = 1000;
+
+  private final ChangeIndexer indexer;
+  private final Provider<ReviewDb> db;
+  private final RequestContextPropagator contextPropagator;
+  private final ExecutorService executor;
+  private final List<Future<Integer>> futures = new ArrayList<>();
+
+  private List<Change> batch = new ArrayList<>();
+  private int added;
+  private int indexed;
+
+  BatchChangeIndexer(
+      ChangeIndexer indexer,
+      Provider<ReviewDb> db,
+      RequestContextPropagator contextPropagator,
+      Project.NameKey project,
+      int threads) {
+    this.indexer = indexer;
+    this.db = db;
+    this.contextPropagator = contextPropagator;
+    this.executor =
+        Executors.newFixedThreadPool(
+            Math.max(1, threads),
+            new ThreadFactoryBuilder()
+                .setNameFormat("Import-" + project.get() + "-index-%d")
+                .setDaemon(true)
+                .build());
+  }
+
+  synchronized void add(Change change) {
+    added++;
+    batch.add(change);
+    if (batch.size() >= BATCH_SIZE) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    List<Change> changes = batch;
+    batch = new ArrayList<>();
+    futures.add(executor.submit(contextPropagator.wrap(() -> index(changes))));
+  }
+
+  /** Returns the number of changes that were added so far. */
+  synchronized int getAdded() {
+    return added;
+  }
+
+  /**
+   * Returns the number of changes that are indexed, counted in the order in which they were added.
+   *
+   * <p>If the result is {@code n}, the first {@code n} added changes are indexed. Batches that are
+   * done after a batch that is still indexed are not counted yet. This method doesn't wait for the
+   * indexing.
+   */
+  synchronized int getIndexed() {
+    while (!futures.isEmpty() && futures.get(0).isDone()) {
+      try {
+        indexed += Futures.getDone(futures.get(0));
+      } catch (ExecutionException | CancellationException e) {
+        // the failure is reported by finish
+        break;
+      }
+      futures.remove(0);
+    }
+    return indexed;
+  }
+
+  private Integer index(List<Change> changes) throws IOException, OrmException {
+    for (Change change : changes) {
+      indexer.index(db.get(), change);
+    }
+    return changes.size();
+  }
+
+  void finish(ProgressMonitor pm) throws IOException, OrmException {
+    List<Future<Integer>> pending;
+    synchronized (this) {
+      if (!batch.isEmpty()) {
+        flush();
+      }
+      pending = new ArrayList<>(futures);
+      futures.clear();
+    }
+
+    pm.beginTask("Index changes", ProgressMonitor.UNKNOWN);
+    try {
+      for (Future<Integer> f : pending) {
+        int n = f.get();
+        synchronized (this) {
+          indexed += n;
+        }
+        pm.update(n);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while indexing changes");
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfInstanceOf(e.getCause(), OrmException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new IOException(e.getCause());
+    }
+    pm.endTask();
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+}
@@ -0,0 +1,375 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommentInfo;
+import com.google.gerrit.extensions.common.GroupInfo;
+import com.google.gerrit.extensions.common.ProjectInfo;
+import com.google.gerrit.extensions.common.SshKeyInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.Url;
+import com.google.gerrit.server.OutputFormat;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import com.google.gson.reflect.TypeToken;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Provides the data of a project from a bundle that was written by {@link ExportProject}, instead
+ * of from the source system.
+ *
+ * <p>A bundle is a zip file in the bundle directory of the plugin. It is referenced as import
+ * source by a {@code bundle:<file name>} URL. The zip file contains:
+ *
+ * <ul>
+ *   <li>{@code manifest.json}: the URL and the version of the source system, the name of the
+ *       project and the names of the exported groups
+ *   <li>{@code project.json}: the project
+ *   <li>{@code changes/index}: the numbers and last update timestamps of the changes, in the order
+ *       of a change query
+ *   <li>{@code changes/<number>.json}: a change with all details
+ *   <li>{@code comments/<number>.json}: the inline comments of a change
+ *   <li>{@code groups/<UUID>.json}: the groups to which the project grants access, with their owner
+ *       groups and included groups
+ *   <li>{@code repository.bundle}: a git bundle with all refs of the repository
+ * </ul>
+ *
+ * <p>Each change is a separate entry, so that any change can be read without reading the others.
+ */
+class BundleApi implements GerritApi {
+  static final String SCHEME = "bundle:";
+
+  static final String MANIFEST = "manifest.json";
+  static final String PROJECT = "project.json";
+  static final String CHANGE_INDEX = "changes/index";
+  static final String REPOSITORY = "repository.bundle";
+
+  private static final Pattern FILE_NAME = Pattern.compile("[A-Za-z0-9_-][A-Za-z0-9._-]*");
+
+  /** The contents of the manifest entry. */
+  static class Manifest {
+    String from;
+    String name;
+    String version;
+    Map<String, String> groups;
+  }
+
+  static boolean isBundle(@Nullable String from) {
+    return from != null && from.startsWith(SCHEME);
+  }
+
+  /** Returns the file name of the bundle that is referenced by the given URL. */
+  static String fileName(String from) throws BadRequestException {
+    return checkFileName(from.substring(SCHEME.length()));
+  }
+
+  static String checkFileName(String fileName) throws BadRequestException {
+    if (!FILE_NAME.matcher(fileName).matches()) {
+      throw new BadRequestException(String.format("invalid bundle name: %s", fileName));
+    }
+    return fileName;
+  }
+
+  /** Returns the file name of the bundle of a project if no name is given. */
+  static String defaultFileName(String projectName) {
+    return projectName.replaceAll("[^A-Za-z0-9._-]", "-") + ".zip";
+  }
+
+  static String changeEntry(int changeNumber) {
+    return "changes/" + changeNumber + ".json";
+  }
+
+  static String commentsEntry(int changeNumber) {
+    return "comments/" + changeNumber + ".json";
+  }
+
+  static String groupEntry(String groupUuid) {
+    return "groups/" + Url.encode(groupUuid) + ".json";
+  }
+
+  static Gson newGson() {
+    return OutputFormat.JSON_COMPACT.newGson();
+  }
+
+  private final ZipFile zip;
+  private final Manifest manifest;
+  private final Gson gson = newGson();
+
+  /** Change numbers in listing order. */
+  private int[] changeNumbers;
+
+  /** Last update timestamps of the changes in listing order, descending. */
+  private long[] updated;
+
+  BundleApi(File file) throws BadRequestException, IOException {
+    if (!file.isFile()) {
+      throw new BadRequestException(String.format("bundle %s not found", file.getName()));
+    }
+    zip = new ZipFile(file);
+    Manifest m = read(MANIFEST, Manifest.class);
+    if (m == null) {
+      zip.close();
+      throw new BadRequestException(String.format("%s is not a project bundle", file.getName()));
+    }
+    manifest = m;
+  }
+
+  /** Returns the URL of the source system from which the bundle was exported. */
+  String getSourceUrl() {
+    return manifest.from;
+  }
+
+  @Override
+  public ProjectInfo getProject(String projectName) throws BadRequestException, IOException {
+    checkProject(projectName);
+    return read(PROJECT, ProjectInfo.class);
+  }
+
+  @Override
+  public ChangeStream streamChanges(String projectName, ChangePageKey key, int limit)
+      throws BadRequestException, IOException {
+    checkProject(projectName);
+    readIndex();
+    // the changes of the page follow the changes that were updated after
+    // the position of the page and the changes that were already returned
+    int start = key.before != null ? firstUpdatedAtOrBefore(key.before.getTime()) : 0;
+    start = Math.min(changeNumbers.length, start + key.skip);
+    int last = key.since != null ? firstUpdatedAtOrBefore(key.since.getTime() - 1) : updated.length;
+    int end = Math.max(start, limit > 0 ? Math.min(last, start + limit) : last);
+    return new ChangeIndexStream(start, end, end < last);
+  }
+
+  /**
+   * Lists the changes like {@link #streamChanges(String, ChangePageKey, int)}, the changes of a
+   * bundle are always read with all details.
+   */
+  @Override
+  public ChangeStream listChanges(String projectName, ChangePageKey key, int limit)
+      throws BadRequestException, IOException {
+    return streamChanges(projectName, key, limit);
+  }
+
+  @Override
+  public ChangeStream getChanges(Collection<Integer> changeNumbers) {
+    Iterator<Integer> it = changeNumbers.iterator();
+    return new ChangeStream() {
+      @Override
+      public ChangeInfo next() throws IOException {
+        while (it.hasNext()) {
+          ChangeInfo c = readChange(it.next());
+          if (c != null) {
+            return c;
+          }
+        }
+        return null;
+      }
+
+      @Override
+      public void close() {}
+    };
+  }
+
+  @Override
+  public Long getRepositorySize(String projectName) {
+    ZipEntry e = zip.getEntry(REPOSITORY);
+    return e != null ? e.getSize() : null;
+  }
+
+  @Override
+  public GroupInfo getGroup(String groupName) throws BadRequestException, IOException {
+    String uuid =
+        manifest.groups != null ? manifest.groups.getOrDefault(groupName, groupName) : groupName;
+    GroupInfo group = read(groupEntry(uuid), GroupInfo.class);
+    if (group == null) {
+      throw new BadRequestException(
+          String.format("group %s is not contained in the bundle", groupName));
+    }
+    return group;
+  }
+
+  @Override
+  public ListMultimap<Integer, CommentInfo> getComments(int changeId)
+      throws BadRequestException, IOException {
+    List<CommentInfo> comments =
+        read(commentsEntry(changeId), new TypeToken<List<CommentInfo>>() {}.getType());
+    if (comments == null) {
+      throw new BadRequestException(
+          String.format("change %d is not contained in the bundle", changeId));
+    }
+    ListMultimap<Integer, CommentInfo> result = ArrayListMultimap.create();
+    for (CommentInfo c : comments) {
+      result.put(c.patchSet, c);
+    }
+    return result;
+  }
+
+  /** The SSH keys of the users are not exported. */
+  @Override
+  public List<SshKeyInfo> getSshKeys(String userId) {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public Version getVersion() {
+    return new Version(manifest.version);
+  }
+
+  /**
+   * Opens the git bundle of the repository.
+   *
+   * @return the git bundle, {@code null} if the repository had no refs
+   */
+  @Nullable
+  InputStream openRepository() throws IOException {
+    ZipEntry e = zip.getEntry(REPOSITORY);
+    return e != null ? zip.getInputStream(e) : null;
+  }
+
+  @Override
+  public void close() throws IOException {
+    zip.close();
+  }
+
+  private void checkProject(String projectName) throws BadRequestException {
+    if (!manifest.name.equals(projectName)) {
+      throw new BadRequestException(
+          String.format("project %s is not contained in the bundle", projectName));
+    }
+  }
+
+  private synchronized void readIndex() throws IOException {
+    if (changeNumbers != null) {
+      return;
+    }
+    List<String> lines = new ArrayList<>();
+    ZipEntry e = zip.getEntry(CHANGE_INDEX);
+    if (e != null) {
+      try (BufferedReader r =
+          new BufferedReader(new InputStreamReader(zip.getInputStream(e), UTF_8))) {
+        for (String line = r.readLine(); line != null; line = r.readLine()) {
+          lines.add(line);
+        }
+      }
+    }
+    int[] numbers = new int[lines.size()];
+    long[] timestamps = new long[lines.size()];
+    for (int i = 0; i < lines.size(); i++) {
+      String line = lines.get(i);
+      int sep = line.indexOf(' ');
+      try {
+        numbers[i] = Integer.parseInt(line.substring(0, sep));
+        timestamps[i] = Long.parseLong(line.substring(sep + 1));
+      } catch (NumberFormatException | StringIndexOutOfBoundsException err) {
+        throw new IOException(String.format("Invalid change index entry: %s", line), err);
+      }
+    }
+    updated = timestamps;
+    changeNumbers = numbers;
+  }
+
+  /** Returns the position of the first change that was last updated at or before the given time. */
+  private int firstUpdatedAtOrBefore(long time) {
+    // the timestamps are in descending order
+    int low = 0;
+    int high = updated.length;
+    while (low < high) {
+      int mid = (low + high) >>> 1;
+      if (updated[mid] > time) {
+        low = mid + 1;
+      } else {
+        high = mid;
+      }
+    }
+    return low;
+  }
+
+  @Nullable
+  private ChangeInfo readChange(int changeNumber) throws IOException {
+    return read(changeEntry(changeNumber), ChangeInfo.class);
+  }
+
+  @Nullable
+  private <T> T read(String name, Type type) throws IOException {
+    ZipEntry e = zip.getEntry(name);
+    if (e == null) {
+      return null;
+    }
+    try (Reader r = new InputStreamReader(zip.getInputStream(e), UTF_8)) {
+      return gson.fromJson(r, type);
+    } catch (JsonParseException err) {
+      throw new IOException(String.format("Invalid bundle entry %s", name), err);
+    }
+  }
+
+  /** Reads the changes at a range of positions of the change index. */
+  private class ChangeIndexStream implements ChangeStream {
+    private final int end;
+    private final boolean more;
+    private int next;
+    private long bytesRead;
+
+    ChangeIndexStream(int start, int end, boolean more) {
+      this.next = start;
+      this.end = end;
+      this.more = more;
+    }
+
+    @Override
+    public ChangeInfo next() throws IOException {
+      while (next < end) {
+        int number = changeNumbers[next++];
+        ChangeInfo c = readChange(number);
+        if (c == null) {
+          continue;
+        }
+        bytesRead += zip.getEntry(changeEntry(number)).getSize();
+        if (next == end && more) {
+          c._moreChanges = true;
+        }
+        return c;
+      }
+      return null;
+    }
+
+    @Override
+    public long getBytesRead() {
+      return bytesRead;
+    }
+
+    @Override
+    public void close() {}
+  }
+}
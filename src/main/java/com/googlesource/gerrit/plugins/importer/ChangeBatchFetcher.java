@@ -0,0 +1,62 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.collect.Lists;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Fetches the changes with the given numbers from the source system, in batches of changes per
+ * request.
+ *
+ * <p>Each batch is read completely before its first change is returned, so that the response is not
+ * kept open while the changes are replayed.
+ */
+class ChangeBatchFetcher implements ChangeStream {
+  static final int BATCH_SIZE = 25;
+
+  private final GerritApi api;
+  private final Iterator<List<Integer>> batches;
+  private final Deque<ChangeInfo> batch = new ArrayDeque<>();
+
+  ChangeBatchFetcher(GerritApi api, List<Integer> changeNumbers) {
+    this.api = api;
+    this.batches = Lists.partition(changeNumbers, BATCH_SIZE).iterator();
+  }
+
+  @Override
+  public ChangeInfo next() throws BadRequestException, IOException {
+    while (batch.isEmpty() && batches.hasNext()) {
+      try (ChangeStream changes = api.getChanges(batches.next())) {
+        for (ChangeInfo c = changes.next(); c != null; c = changes.next()) {
+          batch.add(c);
+        }
+      }
+    }
+    return batch.poll();
+  }
+
+  @Override
+  public void close() {
+    batch.clear();
+  }
+}
@@ -0,0 +1,238 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.reviewdb.client.Project;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the changes of a project in the source system, page by page.
+ *
+ * <p>Each page is decoded while its response is received, and the response is closed before the
+ * first change of the page is returned. How long the replay of the changes takes hence never keeps
+ * a response open, which could exceed the timeouts of the source system or of a load balancer in
+ * front of it. The decoded changes of one page are held in memory, the {@link AdaptivePageSize}
+ * keeps the size of a page bounded. If prefetching is enabled, a background thread keeps up to
+ * {@code prefetch} pages buffered ahead of the consumer, so that fetching overlaps with replaying.
+ * The buffer is bounded by the number of pages, hence its memory is bounded by the size of the
+ * pages and not by the configured maximal page size.
+ *
+ * <p>The number of changes that is requested per page is chosen by an {@link AdaptivePageSize},
+ * which is updated with the observations for each page once the page was read.
+ *
+ * <p>If details are not requested, the changes are only listed with the attributes that a change
+ * query returns by default.
+ *
+ * <p>Only the changes of the given {@link ChangeSlice} are returned. Change queries can't be
+ * restricted by change number, hence the other changes are listed, but skipped. To not transfer the
+ * details of the skipped changes, a slice should be listed without details and the details of its
+ * changes be fetched by a {@link StaleChangeFetcher}.
+ */
+class ChangePageFetcher implements ChangeStream {
+  static final int MAX_PREFETCH = 10;
+
+  private static final Logger log = LoggerFactory.getLogger(ChangePageFetcher.class);
+
+  private static class Entry {
+    static final Entry END = new Entry(null, null);
+
+    final List<ChangeInfo> changes;
+    final Exception error;
+
+    Entry(List<ChangeInfo> changes, Exception error) {
+      this.changes = changes;
+      this.error = error;
+    }
+  }
+
+  private final GerritApi api;
+  private final Project.NameKey project;
+  private final ChangeSlice slice;
+  private final boolean details;
+  private final AdaptivePageSize pageSize;
+  private final BlockingQueue<Entry> buffer;
+  private final ExecutorService executor;
+
+  /** The changes of the current page that were not returned yet. */
+  private final Deque<ChangeInfo> page = new ArrayDeque<>();
+
+  private ChangePageKey key;
+  private boolean more = true;
+  private boolean done;
+
+  ChangePageFetcher(
+      GerritApi api,
+      Project.NameKey project,
+      ChangePageKey key,
+      ChangeSlice slice,
+      boolean details,
+      AdaptivePageSize pageSize,
+      int prefetch,
+      RequestContextPropagator contextPropagator) {
+    this.api = api;
+    this.project = project;
+    this.key = key;
+    this.slice = slice;
+    this.details = details;
+    this.pageSize = pageSize;
+    if (prefetch > 0) {
+      buffer = new ArrayBlockingQueue<>(Math.min(prefetch, MAX_PREFETCH));
+      executor =
+          Executors.newSingleThreadExecutor(
+              new ThreadFactoryBuilder()
+                  .setNameFormat("Import-" + project.get() + "-prefetch")
+                  .setDaemon(true)
+                  .build());
+      executor.submit(contextPropagator.wrap(this::prefetch));
+    } else {
+      buffer = null;
+      executor = null;
+    }
+  }
+
+  /**
+   * Returns the next change.
+   *
+   * @return the next change, {@code null} if all changes have been returned
+   */
+  @Override
+  @Nullable
+  public ChangeInfo next() throws BadRequestException, IOException {
+    if (page.isEmpty() && !done) {
+      List<ChangeInfo> changes = buffer != null ? takePage() : fetchPage();
+      if (changes != null) {
+        page.addAll(changes);
+      } else {
+        done = true;
+      }
+    }
+    return page.poll();
+  }
+
+  @Nullable
+  private List<ChangeInfo> takePage() throws BadRequestException, IOException {
+    Entry e;
+    try {
+      e = buffer.take();
+    } catch (InterruptedException ie) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for changes");
+    }
+    if (e.error != null) {
+      done = true;
+      Throwables.throwIfInstanceOf(e.error, BadRequestException.class);
+      Throwables.throwIfInstanceOf(e.error, IOException.class);
+      Throwables.throwIfUnchecked(e.error);
+      throw new IOException(e.error);
+    }
+    return e.changes;
+  }
+
+  private Void prefetch() throws InterruptedException {
+    for (; ; ) {
+      Entry e;
+      try {
+        List<ChangeInfo> changes = fetchPage();
+        e = changes != null ? new Entry(changes, null) : Entry.END;
+      } catch (Exception ex) {
+        e = new Entry(null, ex);
+      }
+      buffer.put(e);
+      if (e.changes == null) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Returns the changes of the next page that contains changes of the slice.
+   *
+   * @return the changes of the page, {@code null} if there are no more pages
+   */
+  @Nullable
+  private List<ChangeInfo> fetchPage() throws BadRequestException, IOException {
+    while (more) {
+      List<ChangeInfo> changes = readPage();
+      if (!changes.isEmpty()) {
+        return changes;
+      }
+    }
+    return null;
+  }
+
+  /** Reads the next page of the listing completely and closes its response. */
+  private List<ChangeInfo> readPage() throws BadRequestException, IOException {
+    List<ChangeInfo> changesOfSlice = new ArrayList<>();
+    long start = System.nanoTime();
+    int changes = 0;
+    boolean morePages = false;
+    long latencyNanos;
+    long decodeNanos;
+    long bytes;
+    try (ChangeStream changeStream =
+        details
+            ? api.streamChanges(project.get(), key, pageSize.get())
+            : api.listChanges(project.get(), key, pageSize.get())) {
+      latencyNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (ChangeInfo c = changeStream.next(); c != null; c = changeStream.next()) {
+        key = key.after(c);
+        morePages = Boolean.TRUE.equals(c._moreChanges);
+        changes++;
+        if (slice.contains(c)) {
+          changesOfSlice.add(c);
+        }
+      }
+      decodeNanos = System.nanoTime() - start;
+      bytes = changeStream.getBytesRead();
+    }
+    more = morePages;
+    pageSize.update(
+        changes,
+        bytes,
+        TimeUnit.NANOSECONDS.toMillis(latencyNanos),
+        TimeUnit.NANOSECONDS.toMillis(decodeNanos));
+    log.debug(
+        String.format(
+            "Read %d changes of project %s (%d bytes), next page size is %d.",
+            changes, project.get(), bytes, pageSize.get()));
+    return changesOfSlice;
+  }
+
+  @Override
+  public void close() {
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+  }
+}
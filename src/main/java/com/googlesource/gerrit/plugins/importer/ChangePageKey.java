@@ -0,0 +1,84 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import java.sql.Timestamp;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * Position in the change listing of a source project.
+ *
+ * <p>Change queries return changes ordered by their last update, most recent first, with the change
+ * number as tie-breaker. A position is identified by the last update timestamp of the previous
+ * change ({@code before:} is inclusive) and the number of changes with exactly this timestamp that
+ * were already returned. This keeps queries cheap deep into large projects, in contrast to paging
+ * with offsets. Changes that are created or updated on the source while the listing is in progress
+ * do not shift the remaining pages; updated changes are picked up by the next resume.
+ *
+ * <p>Optionally the listing can be restricted to changes that were updated since a given time.
+ */
+class ChangePageKey {
+  static final ChangePageKey FIRST = new ChangePageKey(null, null, 0);
+
+  private static final DateTimeFormatter FORMAT =
+      DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss.SSS Z").withZone(ZoneOffset.UTC);
+
+  @Nullable final Timestamp since;
+  @Nullable final Timestamp before;
+  final int skip;
+
+  ChangePageKey(@Nullable Timestamp since, @Nullable Timestamp before, int skip) {
+    this.since = since;
+    this.before = before;
+    this.skip = skip;
+  }
+
+  /** Returns the key of the first page of changes that were updated at or after the given time. */
+  static ChangePageKey since(@Nullable Timestamp since) {
+    return since != null ? new ChangePageKey(since, null, 0) : FIRST;
+  }
+
+  /**
+   * Returns the key of the changes that follow the given change, which must be the next change of
+   * the listing at this key.
+   */
+  ChangePageKey after(ChangeInfo c) {
+    long updated = c.updated.getTime();
+    if (before != null && before.getTime() == updated) {
+      return new ChangePageKey(since, before, skip + 1);
+    }
+    return new ChangePageKey(since, new Timestamp(updated), 1);
+  }
+
+  /** Returns the query for the changes of the given project that belong to this and later pages. */
+  String toQuery(String projectName) {
+    StringBuilder q = new StringBuilder("project:").append(projectName);
+    if (since != null) {
+      q.append(" after:\"").append(FORMAT.format(since.toInstant())).append('"');
+    }
+    if (before != null) {
+      q.append(" before:\"").append(FORMAT.format(before.toInstant())).append('"');
+    }
+    return q.toString();
+  }
+
+  @Override
+  public String toString() {
+    return before != null ? FORMAT.format(before.toInstant()) + "+" + skip : "first";
+  }
+}
@@ -0,0 +1,93 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.extensions.common.ChangeInfo;
+
+/**
+ * Slice of the changes of a project that is replayed by one of several concurrent import workers.
+ *
+ * <p>A slice is given by a range of change numbers in the source system, by a shard index and the
+ * number of shards (a change belongs to the shard {@code number % shards}), or by both.
+ */
+class ChangeSlice {
+  static final ChangeSlice ALL = new ChangeSlice(0, 0, 0, 0);
+
+  final int shard;
+  final int shards;
+  final int fromChange;
+  final int toChange;
+
+  ChangeSlice(int shard, int shards, int fromChange, int toChange) {
+    this.shard = shard;
+    this.shards = shards;
+    this.fromChange = fromChange;
+    this.toChange = toChange;
+  }
+
+  boolean isAll() {
+    return shards <= 1 && fromChange <= 0 && toChange <= 0;
+  }
+
+  boolean contains(ChangeInfo c) {
+    return contains(c._number);
+  }
+
+  boolean contains(int number) {
+    if (shards > 1 && number % shards != shard) {
+      return false;
+    }
+    if (fromChange > 0 && number < fromChange) {
+      return false;
+    }
+    return toChange <= 0 || number <= toChange;
+  }
+
+  /** Returns a name for the slice that can be used as part of a file name. */
+  String getName() {
+    StringBuilder name = new StringBuilder();
+    if (shards > 1) {
+      name.append("shard-").append(shard).append("-of-").append(shards);
+    }
+    if (fromChange > 0 || toChange > 0) {
+      if (name.length() > 0) {
+        name.append('_');
+      }
+      name.append("changes-").append(Math.max(fromChange, 1)).append('-');
+      if (toChange > 0) {
+        name.append(toChange);
+      }
+    }
+    return name.toString();
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder s = new StringBuilder();
+    if (shards > 1) {
+      s.append("shard ").append(shard).append(" of ").append(shards);
+    }
+    if (fromChange > 0 || toChange > 0) {
+      if (s.length() > 0) {
+        s.append(", ");
+      }
+      s.append("changes ").append(Math.max(fromChange, 1)).append("..");
+      if (toChange > 0) {
+        s.append(toChange);
+      }
+    }
+    return s.length() > 0 ? s.toString() : "all changes";
+  }
+}
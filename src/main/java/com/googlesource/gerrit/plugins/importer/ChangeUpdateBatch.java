@@ -0,0 +1,107 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.reviewdb.client.Account;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.IdentifiedUser;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ChangeUpdate;
+import com.google.gerrit.server.notedb.NoteDbUpdateManager;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.assistedinject.Assisted;
+import java.io.IOException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the NoteDb updates that replay the metadata of one change.
+ *
+ * <p>All updates are written by {@link #commit()} with a single ref update of the change meta ref.
+ * Each update still becomes its own commit, since a NoteDb commit has exactly one author.
+ */
+class ChangeUpdateBatch {
+
+  interface Factory {
+    ChangeUpdateBatch create(Change change);
+  }
+
+  private final ReviewDb db;
+  private final ChangeNotes.Factory changeNotesFactory;
+  private final ChangeUpdate.Factory updateFactory;
+  private final NoteDbUpdateManager.Factory updateManagerFactory;
+  private final IdentifiedUser.GenericFactory genericUserFactory;
+  private final Change change;
+  private final List<ChangeUpdate> updates = new ArrayList<>();
+
+  private ChangeNotes notes;
+
+  @Inject
+  ChangeUpdateBatch(
+      ReviewDb db,
+      ChangeNotes.Factory changeNotesFactory,
+      ChangeUpdate.Factory updateFactory,
+      NoteDbUpdateManager.Factory updateManagerFactory,
+      IdentifiedUser.GenericFactory genericUserFactory,
+      @Assisted Change change) {
+    this.db = db;
+    this.changeNotesFactory = changeNotesFactory;
+    this.updateFactory = updateFactory;
+    this.updateManagerFactory = updateManagerFactory;
+    this.genericUserFactory = genericUserFactory;
+    this.change = change;
+  }
+
+  /** Returns the notes of the change as they were before any update of this batch. */
+  ChangeNotes notes() throws OrmException, NoSuchChangeException {
+    if (notes == null) {
+      notes = changeNotesFactory.createChecked(db, change);
+    }
+    return notes;
+  }
+
+  ChangeUpdate newUpdate(Account.Id author) throws OrmException, NoSuchChangeException {
+    return add(updateFactory.create(notes(), genericUserFactory.create(author)));
+  }
+
+  ChangeUpdate newUpdate(Account.Id author, Timestamp when)
+      throws OrmException, NoSuchChangeException {
+    return add(updateFactory.create(notes(), genericUserFactory.create(author), when));
+  }
+
+  private ChangeUpdate add(ChangeUpdate update) {
+    updates.add(update);
+    return update;
+  }
+
+  void commit() throws IOException, OrmException {
+    if (updates.isEmpty()) {
+      return;
+    }
+    try (NoteDbUpdateManager updateManager =
+        updateManagerFactory.create(change.getProject())) {
+      for (ChangeUpdate update : updates) {
+        updateManager.add(update);
+      }
+      updateManager.stageAndApplyDelta(change);
+      updateManager.execute();
+    }
+    updates.clear();
+  }
+}
@@ -44,7 +44,10 @@ class ConfigureRepositoryStep {
       throws IOException {
     pm.beginTask("Configure repository", 1);
     StoredConfig config = repo.getConfig();
-    if (originUrl != null) {
+    if (BundleApi.isBundle(originUrl)) {
+      // the git data is fetched from the bundle, the URL only records the source
+      config.setString("remote", "origin", "url", originUrl);
+    } else if (originUrl != null) {
       config.setString("remote", "origin", "url", originUrl.concat("/a/").concat(name.get()));
     } else {
       config.setString(
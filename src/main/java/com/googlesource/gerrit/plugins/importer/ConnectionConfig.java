@@ -0,0 +1,132 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import com.google.gerrit.server.config.ConfigUtil;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.jgit.lib.Config;
+
+/**
+ * Settings for the HTTP connections to a source system.
+ *
+ * <p>The settings are read from the {@code source} section of the plugin configuration. A {@code
+ * source} subsection that is named after the host of the source system overrides the settings for
+ * this host.
+ */
+class ConnectionConfig {
+  static final String SECTION = "source";
+
+  static final ConnectionConfig DEFAULT =
+      new ConnectionConfig(
+          10, 1024, TimeUnit.MINUTES.toMillis(1), 0, true, 0, 0, TimeUnit.MINUTES.toMillis(5));
+
+  /** Maximal number of concurrent connections to the source system. */
+  final int maxConnectionsPerRoute;
+
+  /** Maximal number of connections of one import, over all routes. */
+  final int maxConnections;
+
+  /** Time in milliseconds after which idle connections are closed. */
+  final long idleTimeout;
+
+  /** Time in milliseconds after which connections are not reused, 0 if unlimited. */
+  final long connectionTimeToLive;
+
+  /** Whether compressed responses are requested and transparently decompressed. */
+  final boolean compression;
+
+  /**
+   * Upper bound for the adaptive limit of concurrent requests to the source system, 0 if it is
+   * {@link #maxConnectionsPerRoute}.
+   */
+  final int maxConcurrentRequests;
+
+  /** Maximal number of requests per second to the source system, 0 if unlimited. */
+  final int maxRequestsPerSecond;
+
+  /** Time in milliseconds during which failed requests are retried, 0 if they are not retried. */
+  final long retryTimeout;
+
+  ConnectionConfig(
+      int maxConnectionsPerRoute,
+      int maxConnections,
+      long idleTimeout,
+      long connectionTimeToLive,
+      boolean compression,
+      int maxConcurrentRequests,
+      int maxRequestsPerSecond,
+      long retryTimeout) {
+    this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+    this.maxConnections = maxConnections;
+    this.idleTimeout = idleTimeout;
+    this.connectionTimeToLive = connectionTimeToLive;
+    this.compression = compression;
+    this.maxConcurrentRequests = maxConcurrentRequests;
+    this.maxRequestsPerSecond = maxRequestsPerSecond;
+    this.retryTimeout = retryTimeout;
+  }
+
+  /** Returns the upper bound for the adaptive limit of concurrent requests. */
+  int getMaxConcurrentRequests() {
+    // more concurrent requests than connections would only queue in the
+    // connection pool
+    return maxConcurrentRequests > 0
+        ? Math.min(maxConcurrentRequests, maxConnectionsPerRoute)
+        : maxConnectionsPerRoute;
+  }
+
+  static ConnectionConfig read(Config cfg, String url) {
+    ConnectionConfig defaults = read(cfg, null, DEFAULT);
+    String host = URI.create(url).getHost();
+    if (host != null && cfg.getSubsections(SECTION).contains(host)) {
+      return read(cfg, host, defaults);
+    }
+    return defaults;
+  }
+
+  private static ConnectionConfig read(Config cfg, String host, ConnectionConfig defaults) {
+    int maxConnectionsPerRoute =
+        cfg.getInt(SECTION, host, "maxConnectionsPerRoute", defaults.maxConnectionsPerRoute);
+    int maxConnections = cfg.getInt(SECTION, host, "maxConnections", defaults.maxConnections);
+    long idleTimeout =
+        ConfigUtil.getTimeUnit(
+            cfg, SECTION, host, "idleTimeout", defaults.idleTimeout, MILLISECONDS);
+    long connectionTimeToLive =
+        ConfigUtil.getTimeUnit(
+            cfg,
+            SECTION,
+            host,
+            "connectionTimeToLive",
+            defaults.connectionTimeToLive,
+            MILLISECONDS);
+    int maxConcurrentRequests =
+        cfg.getInt(SECTION, host, "maxConcurrentRequests", defaults.maxConcurrentRequests);
+    int maxRequestsPerSecond =
+        cfg.getInt(SECTION, host, "maxRequestsPerSecond", defaults.maxRequestsPerSecond);
+    return new ConnectionConfig(
+        Math.max(1, maxConnectionsPerRoute),
+        Math.max(1, maxConnections),
+        idleTimeout,
+        connectionTimeToLive,
+        cfg.getBoolean(SECTION, host, "compression", defaults.compression),
+        Math.max(0, maxConcurrentRequests),
+        Math.max(0, maxRequestsPerSecond),
+        ConfigUtil.getTimeUnit(
+            cfg, SECTION, host, "retryTimeout", defaults.retryTimeout, MILLISECONDS));
+  }
+}
@@ -0,0 +1,118 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import java.io.IOException;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+@RequiresCapability(ImportCapability.ID)
+@CommandMetaData(name = "estimate-project", description = "Estimates the cost of a project import")
+public class EstimateProjectCommand extends SshCommand {
+  @Option(
+      name = "--from",
+      aliases = {"-f"},
+      required = true,
+      metaVar = "URL",
+      usage = "URL of the remote system from where the project should be imported")
+  private String url;
+
+  @Option(
+      name = "--user",
+      aliases = {"-u"},
+      required = true,
+      metaVar = "NAME",
+      usage = "user on remote system")
+  private String user;
+
+  @Option(
+      name = "--pass",
+      aliases = {"-p"},
+      required = true,
+      metaVar = "-|PASS",
+      usage = "password of remote user")
+  private String pass;
+
+  @Option(
+      name = "--threads",
+      required = false,
+      metaVar = "N",
+      usage = "number of changes that are replayed concurrently (default 1)")
+  private int threads = 1;
+
+  @Option(
+      name = "--prefetch",
+      required = false,
+      metaVar = "N",
+      usage = "number of change pages that are fetched ahead of the replay (default 0)")
+  private int prefetch;
+
+  @Option(
+      name = "--max-page-size",
+      required = false,
+      metaVar = "N",
+      usage = "maximal number of changes that are fetched per request (default 500)")
+  private int maxPageSize;
+
+  @Argument(
+      index = 0,
+      required = true,
+      metaVar = "NAME",
+      usage = "name of the project in source system")
+  private String name;
+
+  @Inject private EstimateProjectImport estimate;
+
+  @Override
+  protected void run() throws OrmException, IOException, UnloggedFailure {
+    EstimateProjectImport.Input input = new EstimateProjectImport.Input();
+    input.from = url;
+    input.name = name;
+    input.user = user;
+    input.pass = PasswordUtil.readPassword(in, pass);
+    input.threads = threads;
+    input.prefetch = prefetch;
+    input.maxPageSize = maxPageSize;
+
+    try {
+      ImportEstimateInfo info = estimate.apply(new ConfigResource(), input);
+      stdout.print("Changes: " + info.numChanges + "\n");
+      stdout.print(
+          String.format(
+              "Revisions: %d, Messages: %d, Inline Comments: %d (extrapolated from %d changes)\n",
+              info.numRevisions, info.numMessages, info.numInlineComments, info.sampleSize));
+      stdout.print(
+          "Repository Size: "
+              + (info.repositorySize != null ? info.repositorySize + " bytes" : "unknown")
+              + "\n");
+      stdout.print(
+          String.format(
+              "Estimated Duration: %d s at %.2f changes/s (%s)\n",
+              info.estimatedDuration,
+              info.changesPerSecond,
+              info.measuredThroughput ? "measured by earlier imports" : "assumed"));
+      stdout.print("Memory Budget: " + info.memoryBudget + " bytes\n");
+    } catch (RestApiException e) {
+      throw die(e.getMessage());
+    }
+  }
+}
@@ -0,0 +1,243 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommentInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.googlesource.gerrit.plugins.importer.EstimateProjectImport.Input;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Estimates the cost of importing a project, without importing anything.
+ *
+ * <p>All changes of the source project are listed without details to count them. The most recently
+ * updated changes are fetched with all details as a sample, from which the number of revisions,
+ * messages and inline comments is extrapolated. The duration is estimated from the throughput of
+ * the earlier initial imports on this server: the replay throughput per thread is scaled by the
+ * number of threads of the planned import, and the fetch of the git data is estimated from the
+ * size of the source repository, if it is known.
+ */
+@RequiresCapability(ImportCapability.ID)
+class EstimateProjectImport implements RestModifyView<ConfigResource, Input> {
+  public static class Input {
+    public String from;
+    public String name;
+    public String user;
+    public String pass;
+    public int threads;
+    public int prefetch;
+    public int maxPageSize;
+
+    private void validate() throws BadRequestException {
+      if (Strings.isNullOrEmpty(from)) {
+        throw new BadRequestException("from is required");
+      }
+      if (Strings.isNullOrEmpty(name)) {
+        throw new BadRequestException("name is required");
+      }
+      if (Strings.isNullOrEmpty(user)) {
+        throw new BadRequestException("user is required");
+      }
+      if (Strings.isNullOrEmpty(pass)) {
+        throw new BadRequestException("pass is required");
+      }
+      if (threads < 0 || prefetch < 0 || maxPageSize < 0) {
+        throw new BadRequestException("threads, prefetch and max_page_size must not be negative");
+      }
+      if (maxPageSize > AdaptivePageSize.LIMIT) {
+        throw new BadRequestException(
+            String.format("max_page_size must not be greater than %d", AdaptivePageSize.LIMIT));
+      }
+    }
+  }
+
+  static final int SAMPLE_SIZE = 25;
+
+  /** Number of inline comment requests for the sample that are sent concurrently. */
+  private static final int SAMPLE_THREADS = 8;
+
+  /** Assumed throughput per thread if no earlier import on this server recorded its throughput. */
+  private static final double DEFAULT_CHANGES_PER_SECOND = 2;
+
+  /** Assumed fetch throughput if no earlier import on this server recorded its fetch. */
+  private static final double DEFAULT_BYTES_PER_SECOND = 10 * 1024 * 1024;
+
+  /** Decoded changes take several times the memory of their JSON representation. */
+  private static final int DECODED_SIZE_FACTOR = 4;
+
+  /** Memory that is needed per change of the project for the bookkeeping of the import. */
+  private static final int BYTES_PER_TRACKED_CHANGE = 256;
+
+  private final GerritApi.Factory apiFactory;
+  private final Provider<ListImportedProjects> listImportedProjects;
+
+  @Inject
+  EstimateProjectImport(
+      GerritApi.Factory apiFactory,
+      Provider<ListImportedProjects> listImportedProjects) {
+    this.apiFactory = apiFactory;
+    this.listImportedProjects = listImportedProjects;
+  }
+
+  @Override
+  public ImportEstimateInfo apply(ConfigResource rsrc, Input input)
+      throws BadRequestException, IOException, OrmException {
+    if (input == null) {
+      input = new Input();
+    }
+    input.validate();
+    ImportEstimateInfo info = new ImportEstimateInfo();
+    long sampleBytes;
+    try (GerritApi api = apiFactory.create(input.from, input.user, input.pass)) {
+      api.getProject(input.name);
+      info.numChanges = countChanges(api, input.name);
+      sampleBytes = sample(api, input.name, info);
+      info.repositorySize = api.getRepositorySize(input.name);
+    }
+
+    measureThroughput(info, Math.max(1, input.threads));
+    info.estimatedDuration = (long) Math.ceil(info.numChanges / info.changesPerSecond);
+    if (info.repositorySize != null) {
+      info.estimatedFetchDuration = (long) Math.ceil(info.repositorySize / info.bytesPerSecond);
+      info.estimatedDuration += info.estimatedFetchDuration;
+    }
+
+    int maxPageSize = input.maxPageSize > 0 ? input.maxPageSize : AdaptivePageSize.DEFAULT_MAX;
+    // with prefetching, a page is read and one is replayed next to the
+    // buffered pages
+    int prefetch = Math.min(input.prefetch, ChangePageFetcher.MAX_PREFETCH);
+    long bufferedChanges =
+        (long) (prefetch > 0 ? prefetch + 2 : 1) * maxPageSize + 2L * Math.max(1, input.threads);
+    long bytesPerChange = info.sampleSize > 0 ? sampleBytes / info.sampleSize : 0;
+    info.memoryBudget =
+        bufferedChanges * bytesPerChange * DECODED_SIZE_FACTOR
+            + (long) info.numChanges * BYTES_PER_TRACKED_CHANGE;
+    return info;
+  }
+
+  private static int countChanges(GerritApi api, String project)
+      throws BadRequestException, IOException {
+    int count = 0;
+    ChangePageKey key = ChangePageKey.FIRST;
+    boolean more;
+    do {
+      more = false;
+      try (ChangeStream changes =
+          api.listChanges(project, key, GlobalCapability.DEFAULT_MAX_QUERY_LIMIT)) {
+        for (ChangeInfo c = changes.next(); c != null; c = changes.next()) {
+          count++;
+          key = key.after(c);
+          more = Boolean.TRUE.equals(c._moreChanges);
+        }
+      }
+    } while (more);
+    return count;
+  }
+
+  private long sample(GerritApi api, String project, ImportEstimateInfo info)
+      throws BadRequestException, IOException, OrmException {
+    long revisions = 0;
+    long messages = 0;
+    long comments = 0;
+    long bytes;
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            SAMPLE_THREADS,
+            new ThreadFactoryBuilder()
+                .setNameFormat("Estimate-" + project + "-%d")
+                .setDaemon(true)
+                .build());
+    try (ChangeStream changes = api.streamChanges(project, ChangePageKey.FIRST, SAMPLE_SIZE)) {
+      // the requests for the inline comments of the changes of the sample
+      // are sent concurrently
+      AsyncGerritApi requests = api.async(executor);
+      List<CompletableFuture<ListMultimap<Integer, CommentInfo>>> inlineComments =
+          new ArrayList<>();
+      for (ChangeInfo c = changes.next(); c != null; c = changes.next()) {
+        info.sampleSize++;
+        messages += c.messages != null ? c.messages.size() : 0;
+        revisions += c.revisions != null ? c.revisions.size() : 0;
+        inlineComments.add(requests.getComments(c._number));
+      }
+      bytes = changes.getBytesRead();
+      for (CompletableFuture<ListMultimap<Integer, CommentInfo>> f : inlineComments) {
+        comments += AsyncGerritApi.await(f).size();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+
+    if (info.sampleSize > 0) {
+      info.numRevisions = extrapolate(revisions, info);
+      info.numMessages = extrapolate(messages, info);
+      info.numInlineComments = extrapolate(comments, info);
+    }
+    return bytes;
+  }
+
+  private static long extrapolate(long sampled, ImportEstimateInfo info) {
+    return Math.round((double) sampled * info.numChanges / info.sampleSize);
+  }
+
+  private void measureThroughput(ImportEstimateInfo info, int threads) throws IOException {
+    long changes = 0;
+    long threadTime = 0;
+    long fetchedBytes = 0;
+    long fetchTime = 0;
+    for (ImportProjectInfo p : listImportedProjects.get().apply(new ConfigResource()).values()) {
+      if (p.imports == null || p.imports.isEmpty()) {
+        continue;
+      }
+      // only initial imports replay all changes, resumes mostly skip changes
+      ImportInfo initial = p.imports.get(0);
+      if (initial.numChangesReplayed != null
+          && initial.replayTime != null
+          && initial.replayTime > 0) {
+        // imports that didn't record their threads replayed serially
+        changes += initial.numChangesReplayed;
+        threadTime += initial.replayTime * (initial.threads != null ? initial.threads : 1);
+      }
+      if (initial.repositorySize != null && initial.fetchTime != null && initial.fetchTime > 0) {
+        fetchedBytes += initial.repositorySize;
+        fetchTime += initial.fetchTime;
+      }
+    }
+    info.measuredThroughput = changes > 0;
+    double changesPerThread =
+        info.measuredThroughput ? changes * 1000.0 / threadTime : DEFAULT_CHANGES_PER_SECOND;
+    // assumes that the replay scales with the threads, which holds as long as
+    // neither the source nor the target system is saturated
+    info.changesPerSecond = changesPerThread * threads;
+    info.bytesPerSecond =
+        fetchedBytes > 0 ? fetchedBytes * 1000.0 / fetchTime : DEFAULT_BYTES_PER_SECOND;
+  }
+}
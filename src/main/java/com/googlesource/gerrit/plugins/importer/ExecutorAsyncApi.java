@@ -0,0 +1,82 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommentInfo;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+/**
+ * Implements {@link AsyncGerritApi} by running the blocking {@link GerritApi} requests on an
+ * executor.
+ *
+ * <p>Each request occupies a thread of the executor until its response was read, hence the number
+ * of requests in flight is bounded by the number of threads of the executor. If a context
+ * propagator is given, the requests run as the user that sent them, so that requests to the local
+ * system see the same data as the calling thread.
+ */
+class ExecutorAsyncApi implements AsyncGerritApi {
+  private final GerritApi api;
+  private final Executor executor;
+  private final RequestContextPropagator contextPropagator;
+
+  ExecutorAsyncApi(
+      GerritApi api, Executor executor, @Nullable RequestContextPropagator contextPropagator) {
+    this.api = api;
+    this.executor = executor;
+    this.contextPropagator = contextPropagator;
+  }
+
+  @Override
+  public CompletableFuture<List<ChangeInfo>> getChanges(Collection<Integer> changeNumbers) {
+    return submit(
+        () -> {
+          List<ChangeInfo> result = new ArrayList<>(changeNumbers.size());
+          try (ChangeStream changes = api.getChanges(changeNumbers)) {
+            for (ChangeInfo c = changes.next(); c != null; c = changes.next()) {
+              result.add(c);
+            }
+          }
+          return result;
+        });
+  }
+
+  @Override
+  public CompletableFuture<ListMultimap<Integer, CommentInfo>> getComments(int changeId) {
+    return submit(() -> api.getComments(changeId));
+  }
+
+  private <T> CompletableFuture<T> submit(Callable<T> request) {
+    Callable<T> task = contextPropagator != null ? contextPropagator.wrap(request) : request;
+    CompletableFuture<T> result = new CompletableFuture<>();
+    executor.execute(
+        () -> {
+          try {
+            result.complete(task.call());
+          } catch (Throwable t) {
+            result.completeExceptionally(t);
+          }
+        });
+    return result;
+  }
+}
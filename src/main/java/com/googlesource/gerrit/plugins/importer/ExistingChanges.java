@@ -0,0 +1,65 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.collect.Maps;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import java.sql.Timestamp;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The changes of a target project that exist already, looked up by their destination branch and
+ * Change-Id.
+ *
+ * <p>The changes that exist when a resume starts are loaded once. The changes that the resume
+ * replays are recorded as well: a resume may run several listings, and a later listing can list a
+ * change once more that an earlier listing created or updated. Changes are recorded concurrently by
+ * the replay threads.
+ */
+class ExistingChanges {
+  private final ConcurrentMap<Map.Entry<Branch.NameKey, Change.Key>, Change.Id> ids =
+      new ConcurrentHashMap<>();
+  private final ConcurrentMap<Change.Id, Timestamp> updates = new ConcurrentHashMap<>();
+
+  /**
+   * Records a change of the target project.
+   *
+   * @param updated the time of the last update of the change in the source system that was
+   *     imported
+   */
+  void add(Branch.NameKey dest, Change.Key key, Change.Id id, Timestamp updated) {
+    ids.put(Maps.immutableEntry(dest, key), id);
+    updates.put(id, updated);
+  }
+
+  /** Returns the ID of the change with the given Change-Id on the given branch, if it exists. */
+  @Nullable
+  Change.Id find(Branch.NameKey dest, Change.Key key) {
+    return ids.get(Maps.immutableEntry(dest, key));
+  }
+
+  /**
+   * Whether the change exists and its last imported update is the given update in the source
+   * system.
+   */
+  boolean isUnchanged(Branch.NameKey dest, Change.Key key, Timestamp updated) {
+    Change.Id id = find(dest, key);
+    return id != null && updated.equals(updates.get(id));
+  }
+}
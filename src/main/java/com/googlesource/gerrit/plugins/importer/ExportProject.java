@@ -0,0 +1,360 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.gerrit.reviewdb.client.AccountGroup.isInternalGroup;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Splitter;
+import com.google.common.base.Strings;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommentInfo;
+import com.google.gerrit.extensions.common.GroupInfo;
+import com.google.gerrit.extensions.common.ProjectInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.reviewdb.client.AccountGroup;
+import com.google.gerrit.reviewdb.client.RefNames;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gson.Gson;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.importer.ExportProject.Input;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.lib.TextProgressMonitor;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+
+/**
+ * Exports a project of a source system into a bundle, from which it can be imported later without
+ * access to the source system, see {@link BundleApi}.
+ *
+ * <p>The changes are exported before the git data, so that the git bundle contains all revisions of
+ * the exported changes.
+ */
+@RequiresCapability(ImportCapability.ID)
+class ExportProject implements RestModifyView<ConfigResource, Input> {
+  public static class Input {
+    public String from;
+    public String name;
+    public String user;
+    public String pass;
+    public String bundle;
+
+    private void validate() throws BadRequestException {
+      if (Strings.isNullOrEmpty(from)) {
+        throw new BadRequestException("from is required");
+      }
+      if (BundleApi.isBundle(from)) {
+        throw new BadRequestException("from must be the URL of a Gerrit server");
+      }
+      if (Strings.isNullOrEmpty(name)) {
+        throw new BadRequestException("name is required");
+      }
+      if (Strings.isNullOrEmpty(user)) {
+        throw new BadRequestException("user is required");
+      }
+      if (Strings.isNullOrEmpty(pass)) {
+        throw new BadRequestException("pass is required");
+      }
+    }
+  }
+
+  /** Number of changes that are fetched per request. */
+  private static final int PAGE_SIZE = 100;
+
+  /** Number of inline comment requests that are sent concurrently. */
+  private static final int COMMENT_THREADS = 8;
+
+  private final GerritApi.Factory apiFactory;
+  private final ProjectsCollection projects;
+  private final Gson gson = BundleApi.newGson();
+
+  private Writer err;
+
+  @Inject
+  ExportProject(GerritApi.Factory apiFactory, ProjectsCollection projects) {
+    this.apiFactory = apiFactory;
+    this.projects = projects;
+  }
+
+  ExportProject setErr(Writer err) {
+    this.err = err;
+    return this;
+  }
+
+  @Override
+  public ExportInfo apply(ConfigResource rsrc, Input input)
+      throws BadRequestException, IOException, OrmException, GitAPIException {
+    if (input == null) {
+      input = new Input();
+    }
+    input.validate();
+    String fileName =
+        BundleApi.checkFileName(
+            !Strings.isNullOrEmpty(input.bundle)
+                ? input.bundle
+                : BundleApi.defaultFileName(input.name));
+    ProgressMonitor pm = err != null ? new TextProgressMonitor(err) : NullProgressMonitor.INSTANCE;
+
+    File dir = projects.FS_LAYOUT.getBundleDir();
+    dir.mkdirs();
+    ExportInfo info = new ExportInfo();
+    info.bundle = BundleApi.SCHEME + fileName;
+    Path tmp = Files.createTempFile(dir.toPath(), fileName, ".tmp");
+    try {
+      try (GerritApi api = apiFactory.create(input.from, input.user, input.pass);
+          ZipOutputStream zip =
+              new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+        BundleApi.Manifest manifest = new BundleApi.Manifest();
+        manifest.from = input.from;
+        manifest.name = input.name;
+        manifest.version = api.getVersion().formatted;
+        ProjectInfo project = api.getProject(input.name);
+        write(zip, BundleApi.PROJECT, project);
+
+        exportChanges(api, input.name, zip, info, pm);
+        Set<String> groupUuids = exportRepository(input, dir, zip, pm);
+        manifest.groups = exportGroups(api, groupUuids, zip);
+        write(zip, BundleApi.MANIFEST, manifest);
+      }
+      Files.move(tmp, new File(dir, fileName).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    info.size = new File(dir, fileName).length();
+    return info;
+  }
+
+  private void exportChanges(
+      GerritApi api, String project, ZipOutputStream zip, ExportInfo info, ProgressMonitor pm)
+      throws BadRequestException, IOException, OrmException {
+    pm.beginTask("Export changes", ProgressMonitor.UNKNOWN);
+    StringBuilder index = new StringBuilder();
+    ExecutorService executor =
+        Executors.newFixedThreadPool(
+            COMMENT_THREADS,
+            new ThreadFactoryBuilder()
+                .setNameFormat("Export-" + project + "-%d")
+                .setDaemon(true)
+                .build());
+    try {
+      // the inline comments of the changes of a page are fetched
+      // concurrently
+      AsyncGerritApi requests = api.async(executor);
+      ChangePageKey key = ChangePageKey.FIRST;
+      boolean more;
+      do {
+        more = false;
+        List<ChangeInfo> page = new ArrayList<>();
+        try (ChangeStream changes = api.streamChanges(project, key, PAGE_SIZE)) {
+          for (ChangeInfo c = changes.next(); c != null; c = changes.next()) {
+            page.add(c);
+            key = key.after(c);
+            more = Boolean.TRUE.equals(c._moreChanges);
+          }
+        }
+        List<CompletableFuture<ListMultimap<Integer, CommentInfo>>> comments = new ArrayList<>();
+        for (ChangeInfo c : page) {
+          comments.add(requests.getComments(c._number));
+        }
+        for (int i = 0; i < page.size(); i++) {
+          ChangeInfo c = page.get(i);
+          List<CommentInfo> inlineComments =
+              new ArrayList<>(AsyncGerritApi.await(comments.get(i)).values());
+          c._moreChanges = null;
+          write(zip, BundleApi.changeEntry(c._number), c);
+          write(zip, BundleApi.commentsEntry(c._number), inlineComments);
+          index.append(c._number).append(' ').append(c.updated.getTime()).append('\n');
+          info.numChanges++;
+          info.numInlineComments += inlineComments.size();
+          pm.update(1);
+        }
+      } while (more);
+    } finally {
+      executor.shutdownNow();
+    }
+    zip.putNextEntry(new ZipEntry(BundleApi.CHANGE_INDEX));
+    zip.write(index.toString().getBytes(UTF_8));
+    zip.closeEntry();
+    pm.endTask();
+  }
+
+  /**
+   * Fetches the repository of the project into a temporary repository and writes all its refs into
+   * a git bundle.
+   *
+   * @return the UUIDs of the groups to which the project grants access
+   */
+  private Set<String> exportRepository(
+      Input input, File dir, ZipOutputStream zip, ProgressMonitor pm)
+      throws IOException, GitAPIException {
+    pm.beginTask("Export repository", 1);
+    File gitDir = Files.createTempDirectory(dir.toPath(), "export-").toFile();
+    try (Git git = Git.init().setBare(true).setDirectory(gitDir).call()) {
+      Repository repo = git.getRepository();
+      StoredConfig config = repo.getConfig();
+      config.setString("http", null, "sslVerify", Boolean.FALSE.toString());
+      config.save();
+      git.fetch()
+          .setRemote(input.from + "/a/" + input.name)
+          .setRefSpecs(new RefSpec("+refs/*:refs/*"))
+          .setCredentialsProvider(new UsernamePasswordCredentialsProvider(input.user, input.pass))
+          .call();
+
+      BundleWriter bundle = new BundleWriter(repo);
+      boolean empty = true;
+      for (Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL).values()) {
+        if (!ref.isSymbolic()) {
+          bundle.include(ref);
+          empty = false;
+        }
+      }
+      if (!empty) {
+        // the pack of the bundle is already compressed
+        zip.setLevel(Deflater.NO_COMPRESSION);
+        zip.putNextEntry(new ZipEntry(BundleApi.REPOSITORY));
+        bundle.writeBundle(NullProgressMonitor.INSTANCE, new NonClosingOutputStream(zip));
+        zip.closeEntry();
+        zip.setLevel(Deflater.DEFAULT_COMPRESSION);
+      }
+      Set<String> groupUuids = readGroupUuids(repo);
+      pm.update(1);
+      pm.endTask();
+      return groupUuids;
+    } finally {
+      FileUtils.delete(gitDir, FileUtils.RECURSIVE | FileUtils.IGNORE_ERRORS);
+    }
+  }
+
+  /** Reads the UUIDs of the internal groups from the group list of the project configuration. */
+  private static Set<String> readGroupUuids(Repository repo) throws IOException {
+    Set<String> uuids = new HashSet<>();
+    Ref config = repo.exactRef(RefNames.REFS_CONFIG);
+    if (config == null) {
+      return uuids;
+    }
+    try (RevWalk rw = new RevWalk(repo);
+        TreeWalk tw = TreeWalk.forPath(repo, "groups", rw.parseTree(config.getObjectId()))) {
+      if (tw == null) {
+        return uuids;
+      }
+      String groups = new String(repo.open(tw.getObjectId(0)).getBytes(), UTF_8);
+      for (String line : Splitter.on('\n').omitEmptyStrings().split(groups)) {
+        // lines of the form "<UUID>\t<name>"
+        int tab = line.indexOf('\t');
+        if (!line.startsWith("#") && tab > 0) {
+          String uuid = line.substring(0, tab).trim();
+          if (isInternalGroup(new AccountGroup.UUID(uuid))) {
+            uuids.add(uuid);
+          }
+        }
+      }
+    }
+    return uuids;
+  }
+
+  /**
+   * Writes the given groups, their owner groups and their included groups.
+   *
+   * @return the UUIDs of the written groups by group name
+   */
+  private Map<String, String> exportGroups(
+      GerritApi api, Set<String> groupUuids, ZipOutputStream zip)
+      throws BadRequestException, IOException, OrmException {
+    Map<String, String> groups = new HashMap<>();
+    Set<String> seen = new HashSet<>(groupUuids);
+    Deque<String> todo = new ArrayDeque<>(groupUuids);
+    while (!todo.isEmpty()) {
+      GroupInfo group = api.getGroup(todo.poll());
+      write(zip, BundleApi.groupEntry(group.id), group);
+      groups.put(group.name, group.id);
+      List<String> related = new ArrayList<>();
+      related.add(group.ownerId);
+      if (group.includes != null) {
+        for (GroupInfo include : group.includes) {
+          related.add(include.id);
+        }
+      }
+      for (String uuid : related) {
+        if (uuid != null && isInternalGroup(new AccountGroup.UUID(uuid)) && seen.add(uuid)) {
+          todo.add(uuid);
+        }
+      }
+    }
+    return groups;
+  }
+
+  private void write(ZipOutputStream zip, String name, Object entity) throws IOException {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(gson.toJson(entity).getBytes(UTF_8));
+    zip.closeEntry();
+  }
+
+  /** Keeps the zip stream open when the bundle writer closes the stream of its entry. */
+  private static class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+}
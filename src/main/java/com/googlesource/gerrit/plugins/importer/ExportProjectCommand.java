@@ -0,0 +1,97 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.sshd.CommandMetaData;
+import com.google.gerrit.sshd.SshCommand;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import java.io.IOException;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+@RequiresCapability(ImportCapability.ID)
+@CommandMetaData(name = "export-project", description = "Exports a project into a bundle")
+public class ExportProjectCommand extends SshCommand {
+  @Option(
+      name = "--from",
+      aliases = {"-f"},
+      required = true,
+      metaVar = "URL",
+      usage = "URL of the remote system from where the project should be exported")
+  private String url;
+
+  @Option(
+      name = "--user",
+      aliases = {"-u"},
+      required = true,
+      metaVar = "NAME",
+      usage = "user on remote system")
+  private String user;
+
+  @Option(
+      name = "--pass",
+      aliases = {"-p"},
+      required = true,
+      metaVar = "-|PASS",
+      usage = "password of remote user")
+  private String pass;
+
+  @Option(
+      name = "--bundle",
+      required = false,
+      metaVar = "FILE",
+      usage = "file name of the bundle (default: the project name with the suffix .zip)")
+  private String bundle;
+
+  @Option(name = "--quiet", usage = "suppress progress messages")
+  private boolean quiet;
+
+  @Argument(
+      index = 0,
+      required = true,
+      metaVar = "NAME",
+      usage = "name of the project in source system")
+  private String name;
+
+  @Inject private ExportProject export;
+
+  @Override
+  protected void run() throws OrmException, IOException, GitAPIException, UnloggedFailure {
+    ExportProject.Input input = new ExportProject.Input();
+    input.from = url;
+    input.name = name;
+    input.user = user;
+    input.pass = PasswordUtil.readPassword(in, pass);
+    input.bundle = bundle;
+
+    try {
+      if (!quiet) {
+        export.setErr(stderr);
+      }
+      ExportInfo info = export.apply(new ConfigResource(), input);
+      stdout.print("Bundle: " + info.bundle + "\n");
+      stdout.print("Changes: " + info.numChanges + "\n");
+      stdout.print("Inline Comments: " + info.numInlineComments + "\n");
+      stdout.print("Size: " + info.size + " bytes\n");
+    } catch (RestApiException e) {
+      throw die(e.getMessage());
+    }
+  }
+}
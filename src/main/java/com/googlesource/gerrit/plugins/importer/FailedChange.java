@@ -0,0 +1,37 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.common.TimeUtil;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.restapi.Url;
+import java.sql.Timestamp;
+
+/** Change that failed to replay while the import continued with the other changes. */
+public class FailedChange {
+  public int number;
+  public String id;
+  public String error;
+  public Timestamp timestamp;
+
+  static FailedChange create(ChangeInfo c, Throwable error) {
+    FailedChange failed = new FailedChange();
+    failed.number = c._number;
+    failed.id = Url.decode(c.id);
+    failed.error = error.toString();
+    failed.timestamp = TimeUtil.nowTs();
+    return failed;
+  }
+}
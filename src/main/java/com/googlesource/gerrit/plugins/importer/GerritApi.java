@@ -15,57 +15,151 @@
 package com.googlesource.gerrit.plugins.importer;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.annotations.PluginName;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.common.CommentInfo;
 import com.google.gerrit.extensions.common.GroupInfo;
 import com.google.gerrit.extensions.common.ProjectInfo;
 import com.google.gerrit.extensions.common.SshKeyInfo;
 import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gerrit.server.config.PluginConfigFactory;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
+import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.Config;
 
-interface GerritApi {
+interface GerritApi extends AutoCloseable {
 
   class Factory {
     private final LocalApi localApi;
+    private final ProjectsCollection projects;
+    private final PluginConfigFactory cfgFactory;
+    private final String pluginName;
+    private final RequestThrottles throttles;
+    private final SourceMetrics metrics;
+    private final ResponseCache cache;
 
     @Inject
-    Factory(LocalApi localApi) {
+    Factory(
+        LocalApi localApi,
+        ProjectsCollection projects,
+        PluginConfigFactory cfgFactory,
+        @PluginName String pluginName,
+        RequestThrottles throttles,
+        SourceMetrics metrics,
+        ResponseCache cache) {
       this.localApi = localApi;
+      this.projects = projects;
+      this.cfgFactory = cfgFactory;
+      this.pluginName = pluginName;
+      this.throttles = throttles;
+      this.metrics = metrics;
+      this.cache = cache;
     }
 
-    GerritApi create(String url, String user, String pass) {
+    /**
+     * Creates the API for the given source system: the local server if the URL is {@code null}, a
+     * bundle if it is a {@code bundle:} URL and otherwise the remote server.
+     *
+     * <p>The caller must close the returned API.
+     *
+     * @throws BadRequestException thrown if the bundle does not exist
+     */
+    GerritApi create(String url, String user, String pass) throws BadRequestException, IOException {
       if (url == null) {
         return localApi;
       }
-      return new RemoteApi(url, user, pass);
+      if (BundleApi.isBundle(url)) {
+        return new BundleApi(new File(projects.FS_LAYOUT.getBundleDir(), BundleApi.fileName(url)));
+      }
+      Config cfg = cfgFactory.getGlobalPluginConfig(pluginName);
+      ConnectionConfig connectionConfig = ConnectionConfig.read(cfg, url);
+      return new RemoteApi(
+          url,
+          user,
+          pass,
+          connectionConfig,
+          throttles.get(url, connectionConfig),
+          metrics,
+          cache.isEnabled() ? cache : null);
     }
   }
 
   public ProjectInfo getProject(String projectName) throws BadRequestException, IOException;
 
-  public List<ChangeInfo> queryChanges(String projectName, int start, int limit)
+  /**
+   * Retrieves a page of changes of a project using keyset pagination, and provides the changes one
+   * at a time while the response is read.
+   *
+   * <p>Only one change of the page must be held in memory at a time. The caller must close the
+   * returned stream.
+   *
+   * @param projectName the name of the project
+   * @param key the position of the page, {@link ChangePageKey#FIRST} for the first page
+   * @param limit the maximum number of changes to return
+   * @return the changes of the page, ordered by last update (most recent first)
+   * @throws IOException thrown if sending the request fails
+   * @throws BadRequestException thrown if the query fails
+   */
+  public ChangeStream streamChanges(String projectName, ChangePageKey key, int limit)
+      throws BadRequestException, IOException;
+
+  /**
+   * Lists a page of changes of a project like {@link #streamChanges(String, ChangePageKey, int)},
+   * but without any details. Only the attributes that a change query returns by default are set,
+   * which makes listing many changes cheap.
+   *
+   * @throws IOException thrown if sending the request fails
+   * @throws BadRequestException thrown if the query fails
+   */
+  public ChangeStream listChanges(String projectName, ChangePageKey key, int limit)
       throws BadRequestException, IOException;
 
+  /**
+   * Retrieves the changes with the given numbers with all details, in one request.
+   *
+   * <p>Changes that don't exist (any more) are omitted.
+   *
+   * @param changeNumbers the numbers of the changes
+   * @throws IOException thrown if sending the request fails
+   * @throws BadRequestException thrown if the query fails
+   */
+  public ChangeStream getChanges(Collection<Integer> changeNumbers)
+      throws BadRequestException, IOException;
+
+  /**
+   * Retrieves the size of the repository of a project.
+   *
+   * @param projectName the name of the project
+   * @return the size of the repository in bytes, or {@code null} if the size is not available
+   * @throws IOException thrown if sending the request fails
+   */
+  @Nullable
+  public Long getRepositorySize(String projectName) throws IOException;
+
   public GroupInfo getGroup(String groupName) throws BadRequestException, IOException, OrmException;
 
   /**
-   * Retrieves inline comments of a patch set.
+   * Retrieves the inline comments of all patch sets of a change, in one request.
    *
    * @param changeId numeric change ID
-   * @param rev the revision
-   * @return Iterable that provides the inline comments, or {@code null} if the revision does not
-   *     exist
+   * @return the inline comments grouped by patch set number
    * @throws IOException thrown if sending the request fails
-   * @throws BadRequestException thrown if the response is neither {@code 200 OK} nor {@code 404 Not
-   *     Found}
+   * @throws BadRequestException thrown if the change does not exist or the request fails
    */
-  public Iterable<CommentInfo> getComments(int changeId, String rev)
+  public ListMultimap<Integer, CommentInfo> getComments(int changeId)
       throws BadRequestException, IOException, OrmException;
 
   public List<SshKeyInfo> getSshKeys(String userId)
@@ -73,6 +167,62 @@ interface GerritApi {
 
   public Version getVersion() throws BadRequestException, IOException;
 
+  /**
+   * Groups the inline comments of a change, as they are returned per file by the REST API, by patch
+   * set number.
+   */
+  static ListMultimap<Integer, CommentInfo> byPatchSet(Map<String, List<CommentInfo>> byFile) {
+    ListMultimap<Integer, CommentInfo> result = ArrayListMultimap.create();
+    for (Map.Entry<String, List<CommentInfo>> e : byFile.entrySet()) {
+      for (CommentInfo i : e.getValue()) {
+        i.path = e.getKey();
+        result.put(i.patchSet, i);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns an asynchronous API that sends the requests of this API on the given executor.
+   *
+   * <p>The requests to a remote server or a bundle don't need the request context of the calling
+   * thread.
+   */
+  default AsyncGerritApi async(Executor executor) {
+    return new ExecutorAsyncApi(this, executor, null);
+  }
+
+  /** Releases the resources of the API, e.g. the opened bundle. */
+  @Override
+  default void close() throws IOException {}
+
+  interface ChangeStream extends AutoCloseable {
+    static ChangeStream of(Iterable<ChangeInfo> changes) {
+      Iterator<ChangeInfo> it = changes.iterator();
+      return new ChangeStream() {
+        @Override
+        public ChangeInfo next() {
+          return it.hasNext() ? it.next() : null;
+        }
+
+        @Override
+        public void close() {}
+      };
+    }
+
+    /** Returns the next change, or {@code null} if all changes have been read. */
+    @Nullable
+    ChangeInfo next() throws BadRequestException, IOException;
+
+    /** Returns the number of response bytes that were read so far, 0 if unknown. */
+    default long getBytesRead() {
+      return 0;
+    }
+
+    @Override
+    void close() throws IOException;
+  }
+
   class Version implements Comparable<Version> {
     final String formatted;
     final Integer major;
@@ -18,6 +18,8 @@ import static com.googlesource.gerrit.plugins.importer.ProgressMonitorUtil.updat
 
 import com.google.inject.Singleton;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
 import java.util.Map;
 import org.eclipse.jgit.api.FetchCommand;
 import org.eclipse.jgit.api.Git;
@@ -25,10 +27,15 @@ import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.InvalidRemoteException;
 import org.eclipse.jgit.api.errors.TransportException;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.TransportBundleStream;
+import org.eclipse.jgit.transport.URIish;
 import org.eclipse.jgit.transport.UsernamePasswordCredentialsProvider;
 
 @Singleton
@@ -46,6 +53,22 @@ class GitFetchStep {
     updateAndEnd(pm);
   }
 
+  /** Fetches the git data from the bundle of the project, instead of from the source system. */
+  void fetch(BundleApi bundle, Repository repo, ProgressMonitor pm) throws IOException {
+    pm.beginTask("Fetch project", 1);
+    try (InputStream in = bundle.openRepository()) {
+      if (in != null) {
+        URIish uri = new URIish().setPath(BundleApi.REPOSITORY);
+        RefSpec refSpec = new RefSpec("+refs/*:" + ConfigureRepositoryStep.R_IMPORTS + "*");
+        try (Transport t = new TransportBundleStream(repo, uri, in)) {
+          t.fetch(NullProgressMonitor.INSTANCE, Collections.singletonList(refSpec));
+        }
+      }
+    }
+    updateNonChangeRefs(repo);
+    updateAndEnd(pm);
+  }
+
   private void updateNonChangeRefs(Repository repo) throws IOException {
     Map<String, Ref> refs = repo.getRefDatabase().getRefs(ConfigureRepositoryStep.R_IMPORTS);
     for (Map.Entry<String, Ref> e : refs.entrySet()) {
@@ -15,11 +15,16 @@
 package com.googlesource.gerrit.plugins.importer;
 
 import com.google.common.base.Preconditions;
+import com.google.common.io.CountingInputStream;
+import com.google.gerrit.common.Nullable;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import java.nio.ByteBuffer;
+import org.apache.http.Header;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.RawParseUtils;
 
@@ -27,18 +32,33 @@ public class HttpResponse implements AutoCloseable {
 
   protected CloseableHttpResponse response;
   protected Reader reader;
+  private final HttpUriRequest request;
+  private CountingInputStream content;
 
-  HttpResponse(CloseableHttpResponse response) {
+  HttpResponse(CloseableHttpResponse response, HttpUriRequest request) {
     this.response = response;
+    this.request = request;
   }
 
   public Reader getReader() throws IllegalStateException, IOException {
     if (reader == null && response.getEntity() != null) {
-      reader = new InputStreamReader(response.getEntity().getContent());
+      reader = new InputStreamReader(getContent());
     }
     return reader;
   }
 
+  protected InputStream getContent() throws IOException {
+    if (content == null) {
+      content = new CountingInputStream(response.getEntity().getContent());
+    }
+    return content;
+  }
+
+  /** Returns the number of bytes of the response entity that were read so far. */
+  public long getBytesRead() {
+    return content != null ? content.getCount() : 0;
+  }
+
   @Override
   public void close() throws IOException {
     try {
@@ -47,16 +67,44 @@ public class HttpResponse implements AutoCloseable {
         while (reader.read() != -1) {
           // Empty
         }
+        // a response that was restored from the cache reads from a file
+        reader.close();
       }
     } finally {
       response.close();
     }
   }
 
+  /**
+   * Closes the response without reading the rest of the response entity.
+   *
+   * <p>The connection is closed and not reused. This is cheaper than {@link #close()} if a large
+   * response is abandoned before it was read completely, e.g. because the import failed.
+   */
+  public void abort() throws IOException {
+    request.abort();
+    try {
+      if (reader != null) {
+        reader.close();
+      }
+    } catch (IOException e) {
+      // the connection was aborted
+    } finally {
+      response.close();
+    }
+  }
+
   public int getStatusCode() {
     return response.getStatusLine().getStatusCode();
   }
 
+  /** Returns the value of the first header with the given name, {@code null} if there is none. */
+  @Nullable
+  public String getHeader(String name) {
+    Header header = response.getFirstHeader(name);
+    return header != null ? header.getValue() : null;
+  }
+
   public String getEntityContent() throws IOException {
     Preconditions.checkNotNull(response, "Response is not initialized.");
     Preconditions.checkNotNull(response.getEntity(), "Response.Entity is not initialized.");
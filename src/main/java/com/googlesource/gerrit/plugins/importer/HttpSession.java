@@ -20,6 +20,7 @@ import java.net.URI;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLSession;
@@ -28,30 +29,50 @@ import javax.net.ssl.X509TrustManager;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
 import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 
 public class HttpSession {
 
   protected final String url;
-  private final String user;
+  protected final String user;
   private final String pass;
+  protected final ConnectionConfig connectionConfig;
   private CloseableHttpClient client;
+  private PoolingHttpClientConnectionManager connectionManager;
+  private long lastEviction;
 
   public HttpSession(String url, String user, String pass) {
+    this(url, user, pass, ConnectionConfig.DEFAULT);
+  }
+
+  HttpSession(String url, String user, String pass, ConnectionConfig connectionConfig) {
     this.url = CharMatcher.is('/').trimTrailingFrom(url);
     this.user = user;
     this.pass = pass;
+    this.connectionConfig = connectionConfig;
   }
 
   public HttpResponse get(String path) throws IOException {
     HttpGet get = new HttpGet(url + path);
-    return new HttpResponse(getClient().execute(get));
+    return new HttpResponse(getClient().execute(get), get);
+  }
+
+  /** Returns the host of the remote system. */
+  protected String getHost() {
+    String host = URI.create(url).getHost();
+    return host != null ? host : url;
   }
 
-  protected CloseableHttpClient getClient() throws IOException {
+  protected synchronized CloseableHttpClient getClient() throws IOException {
     if (client == null) {
       URI uri = URI.create(url);
       BasicCredentialsProvider creds = new BasicCredentialsProvider();
@@ -69,17 +90,63 @@ public class HttpSession {
 
       SSLConnectionSocketFactory sf;
       sf = new SSLConnectionSocketFactory(context, new DummyHostnameVerifier());
-      client =
+      connectionManager =
+          new PoolingHttpClientConnectionManager(
+              RegistryBuilder.<ConnectionSocketFactory>create()
+                  .register("http", PlainConnectionSocketFactory.getSocketFactory())
+                  .register("https", sf)
+                  .build(),
+              null,
+              null,
+              null,
+              connectionConfig.connectionTimeToLive > 0
+                  ? connectionConfig.connectionTimeToLive
+                  : -1,
+              TimeUnit.MILLISECONDS);
+      connectionManager.setDefaultMaxPerRoute(connectionConfig.maxConnectionsPerRoute);
+      connectionManager.setMaxTotal(connectionConfig.maxConnections);
+      HttpClientBuilder builder =
           HttpClients.custom()
-              .setSSLSocketFactory(sf)
+              .setConnectionManager(connectionManager)
               .setDefaultCredentialsProvider(creds)
-              .setMaxConnPerRoute(10)
-              .setMaxConnTotal(1024)
-              .build();
+              .setKeepAliveStrategy(
+                  (response, ctx) -> {
+                    // don't keep connections alive longer than they may be idle
+                    long keepAlive =
+                        DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(
+                            response, ctx);
+                    return keepAlive > 0
+                        ? Math.min(keepAlive, connectionConfig.idleTimeout)
+                        : connectionConfig.idleTimeout;
+                  });
+      if (!connectionConfig.compression) {
+        // by default gzip and deflate compressed responses are accepted and
+        // decompressed transparently
+        builder.disableContentCompression();
+      }
+      client = builder.build();
+      lastEviction = System.currentTimeMillis();
+    } else {
+      evictIdleConnections();
     }
     return client;
   }
 
+  /**
+   * Closes the pooled connections that were idle for longer than the idle timeout.
+   *
+   * <p>This is done when the next request is sent, so that no background thread is needed for an
+   * import. Connections that were closed by the source system in the meantime are not leased.
+   */
+  private void evictIdleConnections() {
+    long now = System.currentTimeMillis();
+    if (now - lastEviction >= connectionConfig.idleTimeout) {
+      connectionManager.closeExpiredConnections();
+      connectionManager.closeIdleConnections(connectionConfig.idleTimeout, TimeUnit.MILLISECONDS);
+      lastEviction = now;
+    }
+  }
+
   private static class DummyX509TrustManager implements X509TrustManager {
     @Override
     public X509Certificate[] getAcceptedIssuers() {
@@ -119,9 +119,13 @@ class ImportGroup implements RestModifyView<ConfigResource, Input> {
           ConfigInvalidException {
     GroupInfo groupInfo;
     this.api = apiFactory.create(input.from, input.user, input.pass);
-    groupInfo = api.getGroup(group.get());
-    validate(input, groupInfo);
-    createGroup(input, groupInfo);
+    try {
+      groupInfo = api.getGroup(group.get());
+      validate(input, groupInfo);
+      createGroup(input, groupInfo);
+    } finally {
+      api.close();
+    }
 
     return Response.ok("OK");
   }
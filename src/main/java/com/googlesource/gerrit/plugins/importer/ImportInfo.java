@@ -21,4 +21,10 @@ public class ImportInfo {
   public Timestamp timestamp;
   public AccountInfo user;
   public String remoteUser;
+  public String slice;
+  public Integer threads;
+  public Long fetchTime;
+  public Long repositorySize;
+  public Integer numChangesReplayed;
+  public Long replayTime;
 }
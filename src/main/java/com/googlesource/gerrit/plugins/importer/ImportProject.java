@@ -18,6 +18,8 @@ import static com.googlesource.gerrit.plugins.importer.ProgressMonitorUtil.updat
 import static java.lang.String.format;
 
 import com.google.common.base.Strings;
+import com.google.common.collect.Iterables;
+import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.common.errors.NoSuchAccountException;
 import com.google.gerrit.extensions.annotations.RequiresCapability;
 import com.google.gerrit.extensions.restapi.BadRequestException;
@@ -43,7 +45,17 @@ import com.googlesource.gerrit.plugins.importer.GerritApi.Version;
 import com.googlesource.gerrit.plugins.importer.ImportProject.Input;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.internal.storage.file.LockFile;
@@ -62,11 +74,38 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
     public String user;
     public String pass;
     public String parent;
+    public int threads;
+    public int prefetch;
+    public boolean deferIndexing;
+    public boolean continueOnError;
+    public int minPageSize;
+    public int maxPageSize;
+    public int shard;
+    public int shards;
+    public int fromChange;
+    public int toChange;
+
+    ChangeSlice slice() throws BadRequestException {
+      if (shards < 0 || shard < 0 || (shard > 0 && shard >= shards)) {
+        throw new BadRequestException("shard must be between 0 and shards - 1");
+      }
+      if (fromChange < 0 || toChange < 0) {
+        throw new BadRequestException("change numbers must not be negative");
+      }
+      if (fromChange > 0 && toChange > 0 && fromChange > toChange) {
+        throw new BadRequestException("from_change must not be greater than to_change");
+      }
+      return new ChangeSlice(shard, shards, fromChange, toChange);
+    }
 
     private void validateImport() throws BadRequestException {
       if (Strings.isNullOrEmpty(from)) {
         throw new BadRequestException("from is required");
       }
+      if (BundleApi.isBundle(from)) {
+        // a bundle is read without credentials
+        return;
+      }
       if (Strings.isNullOrEmpty(user)) {
         throw new BadRequestException("user is required");
       }
@@ -98,6 +137,14 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
   private static Logger log = LoggerFactory.getLogger(ImportProject.class);
   private static Version v2_11_2 = new Version("2.11.2");
 
+  /**
+   * How long a worker that imports a slice of the changes waits for another worker that sets up the
+   * project or persists its result.
+   */
+  private static final long SLICE_LOCK_TIMEOUT_MS = TimeUnit.HOURS.toMillis(1);
+
+  private static final long SLICE_LOCK_POLL_MS = TimeUnit.SECONDS.toMillis(1);
+
   private final ProjectCache projectCache;
   private final OpenRepositoryStep openRepoStep;
   private final ConfigureRepositoryStep configRepoStep;
@@ -115,6 +162,9 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
   private Project.NameKey srcProject;
   private Project.NameKey parent;
   private boolean force;
+  private boolean continueOnError;
+  private boolean retryFailed;
+  private ChangeSlice slice = ChangeSlice.ALL;
   private GerritApi api;
 
   private boolean copy;
@@ -161,6 +211,18 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
     return this;
   }
 
+  /** Sets whether a resume continues with the next change if replaying a change fails. */
+  ImportProject setContinueOnError(boolean continueOnError) {
+    this.continueOnError = continueOnError;
+    return this;
+  }
+
+  /** Sets whether a resume only replays the changes that failed in the previous imports. */
+  ImportProject setRetryFailed(boolean retryFailed) {
+    this.retryFailed = retryFailed;
+    return this;
+  }
+
   @Override
   public ImportStatistic apply(ConfigResource rsrc, Input input)
       throws RestApiException, OrmException, IOException, ValidationException, GitAPIException,
@@ -170,6 +232,11 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
       input = new Input();
     }
 
+    slice = input.slice();
+    if (!slice.isAll()) {
+      return applySlice(input);
+    }
+
     LockFile lockFile = lockForImport();
     try {
       return apply(lockFile, input, null);
@@ -178,7 +245,42 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
     }
   }
 
-  public ResumeImportStatistic resume(String user, String pass, boolean force, File importStatus)
+  /**
+   * Imports a slice of the changes of the project, while other workers may import the other slices
+   * concurrently.
+   *
+   * <p>The first worker creates the project and fetches the git data. The other workers wait until
+   * it has persisted the import status and then join the import, like a resume.
+   */
+  private ResumeImportStatistic applySlice(Input input)
+      throws RestApiException, OrmException, IOException, GitAPIException, NoSuchChangeException,
+          NoSuchAccountException, UpdateException, ConfigInvalidException,
+          PermissionBackendException, PatchListNotAvailableException {
+    File importStatus = projects.FS_LAYOUT.getImportStatusFile(targetProject.get());
+    LockFile sliceLock = new LockFile(projects.FS_LAYOUT.getSliceFile(targetProject.get(), slice));
+    if (!sliceLock.lock()) {
+      throw new ResourceConflictException(
+          String.format("%s of the project is being imported from another session", slice));
+    }
+    try {
+      LockFile lockFile = new LockFile(importStatus);
+      awaitLock(lockFile);
+      try {
+        ImportProjectInfo info = importStatus.exists() ? ImportJson.parse(importStatus) : null;
+        if (info != null && !Objects.equals(info.from, input.from)) {
+          throw new BadRequestException(
+              String.format("project is imported from %s", Strings.nullToEmpty(info.from)));
+        }
+        return apply(lockFile, input, info);
+      } finally {
+        lockFile.unlock();
+      }
+    } finally {
+      sliceLock.unlock();
+    }
+  }
+
+  public ResumeImportStatistic resume(ResumeProjectImport.Input resumeInput, File importStatus)
       throws RestApiException, OrmException, IOException, GitAPIException, NoSuchChangeException,
           NoSuchAccountException, UpdateException, ConfigInvalidException,
           PermissionBackendException, PatchListNotAvailableException {
@@ -187,13 +289,19 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
       ImportProjectInfo info = ImportJson.parse(importStatus);
 
       ImportProject.Input input = new ImportProject.Input();
-      input.user = user;
-      input.pass = pass;
+      input.user = resumeInput.user;
+      input.pass = resumeInput.pass;
       input.from = info.from;
       input.name = info.name;
       input.parent = info.parent;
+      input.threads = resumeInput.threads;
+      input.prefetch = resumeInput.prefetch;
+      input.deferIndexing = resumeInput.deferIndexing;
+      input.minPageSize = resumeInput.minPageSize;
+      input.maxPageSize = resumeInput.maxPageSize;
+      input.continueOnError = continueOnError;
 
-      this.force = force;
+      this.force = resumeInput.force;
 
       return apply(lockFile, input, info);
     } finally {
@@ -205,9 +313,38 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
       throws RestApiException, OrmException, IOException, GitAPIException, NoSuchChangeException,
           NoSuchAccountException, UpdateException, ConfigInvalidException,
           PermissionBackendException, PatchListNotAvailableException {
-    boolean resume = info != null;
     api = apiFactory.create(input.from, input.user, input.pass);
+    try {
+      return importProject(lockFile, input, info);
+    } finally {
+      api.close();
+    }
+  }
 
+  private ResumeImportStatistic importProject(
+      LockFile lockFile, Input input, ImportProjectInfo info)
+      throws RestApiException, OrmException, IOException, GitAPIException, NoSuchChangeException,
+          NoSuchAccountException, UpdateException, ConfigInvalidException,
+          PermissionBackendException, PatchListNotAvailableException {
+    boolean resume = info != null;
+
+    if (input.threads < 0) {
+      throw new BadRequestException("threads must not be negative");
+    }
+    if (input.prefetch < 0 || input.prefetch > ChangePageFetcher.MAX_PREFETCH) {
+      throw new BadRequestException(
+          String.format("prefetch must be between 0 and %d", ChangePageFetcher.MAX_PREFETCH));
+    }
+    if (input.minPageSize < 0 || input.maxPageSize < 0) {
+      throw new BadRequestException("page sizes must not be negative");
+    }
+    if (input.minPageSize > AdaptivePageSize.LIMIT || input.maxPageSize > AdaptivePageSize.LIMIT) {
+      throw new BadRequestException(
+          String.format("page sizes must not be greater than %d", AdaptivePageSize.LIMIT));
+    }
+    if (input.minPageSize > 0 && input.maxPageSize > 0 && input.minPageSize > input.maxPageSize) {
+      throw new BadRequestException("min_page_size must not be greater than max_page_size");
+    }
     if (copy) {
       input.validateCopy();
     } else {
@@ -232,18 +369,82 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
       setParentProjectName(input, pm);
       checkPreconditions(pm);
       try (Repository repo = openRepoStep.open(targetProject, resume, pm, parent)) {
-        ImportJson.persist(lockFile, importJson.format(input, info), pm);
-        configRepoStep.configure(repo, srcProject, input.from, pm);
-        gitFetchStep.fetch(input.user, input.pass, repo, pm);
+        ImportProjectInfo status = importJson.format(input, info);
+        ImportInfo current = Iterables.getLast(status.imports);
+        if (slice.isAll()) {
+          ImportJson.persist(lockFile, status, pm);
+        } else {
+          // the import status is only persisted once the project is set up,
+          // so that the workers of the other slices wait for the git data
+          current.slice = slice.toString();
+        }
+        // workers that join a sharded import don't fetch the git data again
+        // while holding the lock of the import status, the worker that set
+        // up the project has just fetched it
+        if (slice.isAll() || !isGitDataFetchedForSlices(status)) {
+          configRepoStep.configure(repo, srcProject, input.from, pm);
+          long fetchStart = TimeUtil.nowMs();
+          if (api instanceof BundleApi) {
+            gitFetchStep.fetch((BundleApi) api, repo, pm);
+          } else {
+            gitFetchStep.fetch(input.user, input.pass, repo, pm);
+          }
+          current.fetchTime = TimeUtil.nowMs() - fetchStart;
+          current.repositorySize = repositorySize(repo);
+          status.gitDataFetched = new Timestamp(TimeUtil.nowMs());
+        }
         configProjectStep.configure(targetProject, parent, pm);
-        replayChangesFactory
-            .create(input.from, api, repo, srcProject, targetProject, force, resume, statistic, pm)
-            .replay();
+        if (!slice.isAll()) {
+          ImportJson.persist(lockFile, status, pm);
+        }
+        ReplayChangesStep replayChangesStep =
+            replayChangesFactory
+                .create(
+                    sourceUrl(input),
+                    api,
+                    repo,
+                    srcProject,
+                    targetProject,
+                    force,
+                    resume,
+                    statistic,
+                    pm)
+                .setThreads(input.threads)
+                .setPrefetch(input.prefetch)
+                .setPageSize(input.minPageSize, input.maxPageSize)
+                .setDeferIndexing(input.deferIndexing)
+                .setSlice(slice)
+                .setContinueOnError(input.continueOnError)
+                .setRetryFailed(retryFailed)
+                .setFailedChanges(failedChangesOf(status))
+                .setSince(status.highWaterMark);
+        if (slice.isAll()) {
+          replayChangesStep
+              .setCheckpoint(status.checkpoint)
+              .setCheckpointer((c, failed) -> persistCheckpoint(lockFile, status, c, failed));
+        }
+        long replayStart = TimeUtil.nowMs();
+        current.threads = Math.max(1, input.threads);
+        replayChangesStep.replay();
+        current.numChangesReplayed = replayChangesStep.getNumChanges();
+        current.replayTime = TimeUtil.nowMs() - replayStart;
         if (!copy) {
           importGroupsStepFactory
               .create(input.from, input.user, input.pass, targetProject, pm)
               .importGroups();
         }
+        List<FailedChange> failedChanges = replayChangesStep.getFailedChanges();
+        if (retryFailed) {
+          // only the failed changes were replayed, a checkpoint of an
+          // interrupted import must still be continued
+          status.failedChanges = emptyToNull(failedChanges);
+          relockAndPersist(lockFile, status, pm);
+        } else if (slice.isAll()) {
+          status.failedChanges = emptyToNull(failedChanges);
+          persistResult(lockFile, status, replayChangesStep.getHighWaterMark(), pm);
+        } else {
+          persistSliceResult(lockFile, current, failedChanges, pm);
+        }
       }
       importLog.onImport((IdentifiedUser) currentUser.get(), srcProject, targetProject, input.from);
     } catch (BadRequestException e) {
@@ -264,6 +465,138 @@ class ImportProject implements RestModifyView<ConfigResource, Input> {
     return statistic;
   }
 
+  /** Returns the URL of the source system, to which the imported changes link. */
+  private String sourceUrl(Input input) {
+    return api instanceof BundleApi ? ((BundleApi) api).getSourceUrl() : input.from;
+  }
+
+  private static void persistResult(
+      LockFile lockFile, ImportProjectInfo status, Timestamp mark, ProgressMonitor pm)
+      throws IOException, ResourceConflictException {
+    if (mark != null && (status.highWaterMark == null || mark.after(status.highWaterMark))) {
+      status.highWaterMark = mark;
+    }
+    status.checkpoint = null;
+    relockAndPersist(lockFile, status, pm);
+  }
+
+  private static void persistCheckpoint(
+      LockFile lockFile,
+      ImportProjectInfo status,
+      ReplayCheckpoint checkpoint,
+      Collection<FailedChange> failedChanges)
+      throws IOException, ResourceConflictException {
+    status.checkpoint = checkpoint;
+    status.failedChanges = emptyToNull(new ArrayList<>(failedChanges));
+    relockAndPersist(lockFile, status, NullProgressMonitor.INSTANCE);
+  }
+
+  /**
+   * Persists the result of a slice import.
+   *
+   * <p>Workers of other slices update the import status concurrently, hence it is read again under
+   * the lock and only the entry of this import and the failed changes of this slice are replaced.
+   * The high-water mark is not advanced, as the other slices may not be complete.
+   */
+  private void persistSliceResult(
+      LockFile lockFile,
+      ImportInfo current,
+      List<FailedChange> failedChanges,
+      ProgressMonitor pm)
+      throws IOException, ResourceConflictException {
+    awaitLock(lockFile);
+    ImportProjectInfo status;
+    try {
+      status = ImportJson.parse(projects.FS_LAYOUT.getImportStatusFile(targetProject.get()));
+    } catch (IOException e) {
+      lockFile.unlock();
+      throw e;
+    }
+    for (int i = 0; i < status.imports.size(); i++) {
+      ImportInfo info = status.imports.get(i);
+      if (info.timestamp.equals(current.timestamp) && Objects.equals(info.slice, current.slice)) {
+        status.imports.set(i, current);
+      }
+    }
+    List<FailedChange> failed = new ArrayList<>();
+    if (status.failedChanges != null) {
+      for (FailedChange f : status.failedChanges) {
+        if (!slice.contains(f.number)) {
+          failed.add(f);
+        }
+      }
+    }
+    failed.addAll(failedChanges);
+    status.failedChanges = emptyToNull(failed);
+    ImportJson.persist(lockFile, status, pm);
+  }
+
+  /**
+   * Whether the git data was fetched by a worker that set up a sharded import recently enough that
+   * this worker joins the same import. The workers of other slices wait at most {@link
+   * #SLICE_LOCK_TIMEOUT_MS} for the setup, a later sharded import fetches the git data again.
+   */
+  private static boolean isGitDataFetchedForSlices(ImportProjectInfo status) {
+    return status.gitDataFetched != null
+        && TimeUtil.nowMs() - status.gitDataFetched.getTime() < SLICE_LOCK_TIMEOUT_MS;
+  }
+
+  /** Returns the failed changes of the previous imports that belong to the imported slice. */
+  private List<FailedChange> failedChangesOf(ImportProjectInfo status) {
+    List<FailedChange> failed = new ArrayList<>();
+    if (status.failedChanges != null) {
+      for (FailedChange f : status.failedChanges) {
+        if (slice.contains(f.number)) {
+          failed.add(f);
+        }
+      }
+    }
+    return failed;
+  }
+
+  private static List<FailedChange> emptyToNull(List<FailedChange> failedChanges) {
+    return failedChanges.isEmpty() ? null : failedChanges;
+  }
+
+  private static void awaitLock(LockFile lockFile) throws IOException, ResourceConflictException {
+    long deadline = TimeUtil.nowMs() + SLICE_LOCK_TIMEOUT_MS;
+    try {
+      while (!lockFile.lock()) {
+        if (TimeUtil.nowMs() >= deadline) {
+          throw new ResourceConflictException("project is being imported from another session");
+        }
+        Thread.sleep(SLICE_LOCK_POLL_MS);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the import lock");
+    }
+  }
+
+  private static void relockAndPersist(
+      LockFile lockFile, ImportProjectInfo status, ProgressMonitor pm)
+      throws IOException, ResourceConflictException {
+    // the lock was released when the import status was persisted before
+    if (!lockFile.lock()) {
+      throw new ResourceConflictException("project is being imported from another session");
+    }
+    ImportJson.persist(lockFile, status, pm);
+  }
+
+  /** Returns the size of the objects of a repository on disk, null if it isn't stored in files. */
+  private static Long repositorySize(Repository repo) throws IOException {
+    if (repo.getDirectory() == null) {
+      return null;
+    }
+    Path objects = repo.getDirectory().toPath().resolve("objects");
+    if (!Files.isDirectory(objects)) {
+      return null;
+    }
+    try (Stream<Path> files = Files.walk(objects)) {
+      return files.filter(Files::isRegularFile).mapToLong(f -> f.toFile().length()).sum();
+    }
+  }
+
   private void checkProjectInSource(ProgressMonitor pm) throws IOException, BadRequestException {
     pm.beginTask("Check source project", 1);
     api.getProject(srcProject.get());
@@ -14,6 +14,7 @@
 
 package com.googlesource.gerrit.plugins.importer;
 
+import java.sql.Timestamp;
 import java.util.List;
 
 public class ImportProjectInfo {
@@ -21,4 +22,8 @@ public class ImportProjectInfo {
   public String name;
   public String parent;
   public List<ImportInfo> imports;
+  public Timestamp highWaterMark;
+  public Timestamp gitDataFetched;
+  public ReplayCheckpoint checkpoint;
+  public List<FailedChange> failedChanges;
 }
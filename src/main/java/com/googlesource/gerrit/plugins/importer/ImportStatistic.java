@@ -16,4 +16,5 @@ package com.googlesource.gerrit.plugins.importer;
 
 class ImportStatistic {
   int numChangesCreated;
+  int numChangesFailed;
 }
@@ -29,7 +29,6 @@ import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.config.CanonicalWebUrl;
 import com.google.gerrit.server.notedb.ChangeUpdate;
 import com.google.gerrit.server.project.NoSuchChangeException;
-import com.google.gerrit.server.query.change.ChangeData;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
@@ -38,45 +37,43 @@ import java.io.IOException;
 class InsertLinkToOriginalChangeStep {
 
   private final CurrentUser currentUser;
-  private final ChangeUpdate.Factory updateFactory;
-  private final IdentifiedUser.GenericFactory genericUserFactory;
-  private final ChangeData.Factory changeDataFactory;
   private final ReviewDb db;
   private final ChangeMessagesUtil cmUtil;
   private final String canonicalWebUrl;
   private final String fromGerrit;
   private final Change change;
   private final ChangeInfo changeInfo;
+  private final ChangeUpdateBatch updates;
   private final boolean resume;
 
   interface Factory {
     InsertLinkToOriginalChangeStep create(
-        @Nullable String fromGerrit, Change change, ChangeInfo changeInfo, boolean resume);
+        @Nullable String fromGerrit,
+        Change change,
+        ChangeInfo changeInfo,
+        ChangeUpdateBatch updates,
+        boolean resume);
   }
 
   @Inject
   InsertLinkToOriginalChangeStep(
       CurrentUser currentUser,
-      ChangeUpdate.Factory updateFactory,
-      IdentifiedUser.GenericFactory genericUserFactory,
-      ChangeData.Factory changeDataFactory,
       ReviewDb db,
       ChangeMessagesUtil cmUtil,
       @CanonicalWebUrl String canonicalWebUrl,
       @Assisted @Nullable String fromGerrit,
       @Assisted Change change,
       @Assisted ChangeInfo changeInfo,
+      @Assisted ChangeUpdateBatch updates,
       @Assisted boolean resume) {
     this.currentUser = currentUser;
-    this.updateFactory = updateFactory;
-    this.genericUserFactory = genericUserFactory;
-    this.changeDataFactory = changeDataFactory;
     this.db = db;
     this.cmUtil = cmUtil;
     this.canonicalWebUrl = canonicalWebUrl;
     this.fromGerrit = fromGerrit;
     this.change = change;
     this.changeInfo = changeInfo;
+    this.updates = updates;
     this.resume = resume;
   }
 
@@ -95,8 +92,7 @@ class InsertLinkToOriginalChangeStep {
   private void insertMessage(Change change, String message)
       throws NoSuchChangeException, OrmException, IOException {
     Account.Id userId = ((IdentifiedUser) currentUser).getAccountId();
-    ChangeData cd = changeDataFactory.create(db, change);
-    ChangeUpdate update = updateFactory.create(cd.notes(), genericUserFactory.create(userId));
+    ChangeUpdate update = updates.newUpdate(userId);
     ChangeMessage cmsg =
         new ChangeMessage(
             new ChangeMessage.Key(change.getId(), ChangeUtil.messageUuid()),
@@ -105,7 +101,6 @@ class InsertLinkToOriginalChangeStep {
             change.currentPatchSetId());
     cmsg.setMessage(message);
     cmUtil.addChangeMessage(db, update, cmsg);
-    update.commit();
   }
 
   private static String ensureSlash(String in) {
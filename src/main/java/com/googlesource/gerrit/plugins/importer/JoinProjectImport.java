@@ -0,0 +1,61 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.common.errors.NoSuchAccountException;
+import com.google.gerrit.extensions.annotations.RequiresCapability;
+import com.google.gerrit.extensions.restapi.ResourceConflictException;
+import com.google.gerrit.extensions.restapi.RestApiException;
+import com.google.gerrit.extensions.restapi.RestModifyView;
+import com.google.gerrit.server.config.ConfigResource;
+import com.google.gerrit.server.patch.PatchListNotAvailableException;
+import com.google.gerrit.server.permissions.PermissionBackendException;
+import com.google.gerrit.server.project.NoSuchChangeException;
+import com.google.gerrit.server.update.UpdateException;
+import com.google.gerrit.server.validators.ValidationException;
+import com.google.gwtorm.server.OrmException;
+import com.google.inject.Inject;
+import com.googlesource.gerrit.plugins.importer.ImportProject.Input;
+import java.io.IOException;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.errors.ConfigInvalidException;
+
+/**
+ * Joins the import of a project with a slice of its changes.
+ *
+ * <p>Workers that import slices of the same project use the same request. The first one creates
+ * the import, the others find it existing and join it through this view.
+ */
+@RequiresCapability(ImportCapability.ID)
+class JoinProjectImport implements RestModifyView<ImportProjectResource, Input> {
+  private final ImportProject.Factory importProjectFactory;
+
+  @Inject
+  JoinProjectImport(ImportProject.Factory importProjectFactory) {
+    this.importProjectFactory = importProjectFactory;
+  }
+
+  @Override
+  public ImportStatistic apply(ImportProjectResource rsrc, Input input)
+      throws RestApiException, OrmException, IOException, ValidationException, GitAPIException,
+          NoSuchChangeException, NoSuchAccountException, UpdateException, ConfigInvalidException,
+          PermissionBackendException, PatchListNotAvailableException {
+    if (input == null || input.slice().isAll()) {
+      throw new ResourceConflictException(
+          String.format("project %s was already imported", rsrc.getName().get()));
+    }
+    return importProjectFactory.create(rsrc.getName()).apply(new ConfigResource(), input);
+  }
+}
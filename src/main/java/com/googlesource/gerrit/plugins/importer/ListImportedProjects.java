@@ -64,9 +64,13 @@ public class ListImportedProjects implements RestReadView<ConfigResource> {
     Collection<File> importFiles = new HashSet<>();
     File lockRoot = projects.FS_LAYOUT.getLockRoot();
     Path lockRootPath = lockRoot.toPath();
+    Path responseCachePath = projects.FS_LAYOUT.getResponseCacheDir().toPath();
+    Path bundlePath = projects.FS_LAYOUT.getBundleDir().toPath();
     for (File f : Files.fileTraverser().depthFirstPreOrder(lockRoot)) {
       if (f.isFile()
           && !f.getName().endsWith(".lock")
+          && !f.toPath().startsWith(responseCachePath)
+          && !f.toPath().startsWith(bundlePath)
           && matches(lockRootPath.relativize(f.toPath()))) {
         importFiles.add(f);
       }
@@ -14,7 +14,7 @@
 
 package com.googlesource.gerrit.plugins.importer;
 
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.gerrit.extensions.api.changes.Changes.QueryRequest;
 import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
@@ -35,23 +35,28 @@ import com.google.gerrit.server.permissions.PermissionBackendException;
 import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.stream.Collectors;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 
 public class LocalApi implements GerritApi {
   private final com.google.gerrit.extensions.api.GerritApi gApi;
   private final AccountsCollection accounts;
   private final GetSshKeys getSshKeys;
+  private final RequestContextPropagator contextPropagator;
 
   @Inject
   LocalApi(
       com.google.gerrit.extensions.api.GerritApi gApi,
       AccountsCollection accounts,
-      GetSshKeys getSshKeys) {
+      GetSshKeys getSshKeys,
+      RequestContextPropagator contextPropagator) {
     this.gApi = gApi;
     this.accounts = accounts;
     this.getSshKeys = getSshKeys;
+    this.contextPropagator = contextPropagator;
   }
 
   @Override
@@ -64,20 +69,44 @@ public class LocalApi implements GerritApi {
   }
 
   @Override
-  public List<ChangeInfo> queryChanges(String projectName, int start, int limit)
+  public ChangeStream streamChanges(String projectName, ChangePageKey key, int limit)
       throws IOException, BadRequestException {
-    try {
+    return ChangeStream.of(queryChanges(key.toQuery(projectName), key.skip, limit, true));
+  }
+
+  @Override
+  public ChangeStream listChanges(String projectName, ChangePageKey key, int limit)
+      throws IOException, BadRequestException {
+    return ChangeStream.of(queryChanges(key.toQuery(projectName), key.skip, limit, false));
+  }
+
+  @Override
+  public ChangeStream getChanges(Collection<Integer> changeNumbers)
+      throws IOException, BadRequestException {
+    String query =
+        changeNumbers.stream().map(n -> "change:" + n).collect(Collectors.joining(" OR "));
+    return ChangeStream.of(queryChanges(query, 0, changeNumbers.size(), true));
+  }
+
+  @Override
+  public Long getRepositorySize(String projectName) {
+    return null;
+  }
 
-      QueryRequest query = gApi.changes().query("project:" + projectName);
-      query
-          .withStart(start)
-          .withOptions(
-              ListChangesOption.DETAILED_LABELS,
-              ListChangesOption.DETAILED_ACCOUNTS,
-              ListChangesOption.MESSAGES,
-              ListChangesOption.CURRENT_REVISION,
-              ListChangesOption.ALL_REVISIONS,
-              ListChangesOption.ALL_COMMITS);
+  private List<ChangeInfo> queryChanges(String q, int start, int limit, boolean details)
+      throws IOException, BadRequestException {
+    try {
+      QueryRequest query = gApi.changes().query(q);
+      query.withStart(start);
+      if (details) {
+        query.withOptions(
+            ListChangesOption.DETAILED_LABELS,
+            ListChangesOption.DETAILED_ACCOUNTS,
+            ListChangesOption.MESSAGES,
+            ListChangesOption.CURRENT_REVISION,
+            ListChangesOption.ALL_REVISIONS,
+            ListChangesOption.ALL_COMMITS);
+      }
       if (limit > 0) {
         query.withLimit(limit);
       }
@@ -98,18 +127,10 @@ public class LocalApi implements GerritApi {
   }
 
   @Override
-  public Iterable<CommentInfo> getComments(int changeId, String rev)
+  public ListMultimap<Integer, CommentInfo> getComments(int changeId)
       throws IOException, OrmException, BadRequestException {
     try {
-      Map<String, List<CommentInfo>> result = gApi.changes().id(changeId).revision(rev).comments();
-
-      for (Map.Entry<String, List<CommentInfo>> e : result.entrySet()) {
-        for (CommentInfo i : e.getValue()) {
-          i.path = e.getKey();
-        }
-      }
-
-      return Iterables.concat(result.values());
+      return GerritApi.byPatchSet(gApi.changes().id(changeId).comments());
     } catch (RestApiException e) {
       throw new BadRequestException(e.getMessage());
     }
@@ -131,4 +152,13 @@ public class LocalApi implements GerritApi {
   public Version getVersion() throws BadRequestException, IOException {
     return new Version(com.google.gerrit.common.Version.getVersion());
   }
+
+  /**
+   * Returns an asynchronous API whose requests run as the user that sent them, so that they see the
+   * same data as the calling thread.
+   */
+  @Override
+  public AsyncGerritApi async(Executor executor) {
+    return new ExecutorAsyncApi(this, executor, contextPropagator);
+  }
 }
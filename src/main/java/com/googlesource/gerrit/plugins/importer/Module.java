@@ -47,8 +47,11 @@ class Module extends FactoryModule {
 
             child(CONFIG_KIND, "projects").to(ProjectsCollection.class);
             get(IMPORT_PROJECT_KIND).to(GetImportedProject.class);
+            put(IMPORT_PROJECT_KIND).to(JoinProjectImport.class);
             put(IMPORT_PROJECT_KIND, "resume").to(ResumeProjectImport.class);
             delete(IMPORT_PROJECT_KIND).to(CompleteProjectImport.class);
+            post(CONFIG_KIND, "projects.estimate").to(EstimateProjectImport.class);
+            post(CONFIG_KIND, "projects.export").to(ExportProject.class);
 
             put(PROJECT_KIND, "copy").to(CopyProject.class);
             put(PROJECT_KIND, "copy.resume").to(ResumeCopyProject.class);
@@ -64,6 +67,7 @@ class Module extends FactoryModule {
     bind(ConfigureProjectStep.class);
     bind(GitFetchStep.class);
     bind(AccountUtil.class);
+    bind(RequestContextPropagator.class);
     factory(ImportProject.Factory.class);
     factory(ReplayChangesStep.Factory.class);
     factory(ReplayRevisionsStep.Factory.class);
@@ -72,6 +76,7 @@ class Module extends FactoryModule {
     factory(AddApprovalsStep.Factory.class);
     factory(AddHashtagsStep.Factory.class);
     factory(InsertLinkToOriginalChangeStep.Factory.class);
+    factory(ChangeUpdateBatch.Factory.class);
     factory(ImportGroupsStep.Factory.class);
     DynamicSet.bind(binder(), TopMenu.class).to(ImportMenu.class);
     factory(ImportGroup.Factory.class);
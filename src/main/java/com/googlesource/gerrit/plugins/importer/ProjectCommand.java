@@ -43,7 +43,9 @@ public class ProjectCommand extends SshCommand {
       aliases = {"-f"},
       required = true,
       metaVar = "URL",
-      usage = "URL of the remote system from where the project should be imported")
+      usage =
+          "URL of the remote system from where the project should be imported,"
+              + " or bundle:<FILE> to import it from an exported bundle")
   private String url;
 
   @Option(
@@ -58,17 +60,17 @@ public class ProjectCommand extends SshCommand {
   @Option(
       name = "--user",
       aliases = {"-u"},
-      required = true,
+      required = false,
       metaVar = "NAME",
-      usage = "user on remote system")
+      usage = "user on remote system, not needed for a bundle")
   private String user;
 
   @Option(
       name = "--pass",
       aliases = {"-p"},
-      required = true,
+      required = false,
       metaVar = "-|PASS",
-      usage = "password of remote user")
+      usage = "password of remote user, not needed for a bundle")
   private String pass;
 
   @Option(
@@ -78,6 +80,72 @@ public class ProjectCommand extends SshCommand {
       usage = "name of parent project in target system")
   private String parent;
 
+  @Option(
+      name = "--threads",
+      required = false,
+      metaVar = "N",
+      usage = "number of changes that are replayed concurrently (default 1)")
+  private int threads = 1;
+
+  @Option(
+      name = "--prefetch",
+      required = false,
+      metaVar = "N",
+      usage = "number of change pages that are fetched ahead of the replay (default 0)")
+  private int prefetch;
+
+  @Option(
+      name = "--min-page-size",
+      required = false,
+      metaVar = "N",
+      usage = "minimal number of changes that are fetched per request (default 10)")
+  private int minPageSize;
+
+  @Option(
+      name = "--max-page-size",
+      required = false,
+      metaVar = "N",
+      usage = "maximal number of changes that are fetched per request (default 500)")
+  private int maxPageSize;
+
+  @Option(
+      name = "--shard",
+      required = false,
+      metaVar = "N",
+      usage = "index of the shard of changes that is imported, from 0 to shards - 1")
+  private int shard;
+
+  @Option(
+      name = "--shards",
+      required = false,
+      metaVar = "N",
+      usage = "number of shards into which the changes are divided by change number")
+  private int shards;
+
+  @Option(
+      name = "--from-change",
+      required = false,
+      metaVar = "NUMBER",
+      usage = "smallest number of a change in source system that is imported")
+  private int fromChange;
+
+  @Option(
+      name = "--to-change",
+      required = false,
+      metaVar = "NUMBER",
+      usage = "largest number of a change in source system that is imported")
+  private int toChange;
+
+  @Option(
+      name = "--defer-indexing",
+      usage = "index the imported changes in batches instead of after each change")
+  private boolean deferIndexing;
+
+  @Option(
+      name = "--continue-on-error",
+      usage = "continue with the next change if replaying a change fails")
+  private boolean continueOnError;
+
   @Option(name = "--quiet", usage = "suppress progress messages")
   private boolean quiet;
 
@@ -100,6 +168,16 @@ public class ProjectCommand extends SshCommand {
     input.name = name;
     input.user = user;
     input.pass = PasswordUtil.readPassword(in, pass);
+    input.threads = threads;
+    input.prefetch = prefetch;
+    input.minPageSize = minPageSize;
+    input.maxPageSize = maxPageSize;
+    input.deferIndexing = deferIndexing;
+    input.continueOnError = continueOnError;
+    input.shard = shard;
+    input.shards = shards;
+    input.fromChange = fromChange;
+    input.toChange = toChange;
     if (!Strings.isNullOrEmpty(parent)) {
       input.parent = parent;
     }
@@ -111,6 +189,7 @@ public class ProjectCommand extends SshCommand {
       }
       ImportStatistic stats = importer.apply(new ConfigResource(), input);
       stdout.print("Created Changes: " + stats.numChangesCreated + "\n");
+      stdout.print("Failed Changes: " + stats.numChangesFailed + "\n");
     } catch (RestApiException e) {
       throw die(e.getMessage());
     }
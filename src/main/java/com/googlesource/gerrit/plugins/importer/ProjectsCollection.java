@@ -43,15 +43,35 @@ public class ProjectsCollection
   class FileSystemLayout {
 
     private String SUFFIX_IMPORT_STATUS_FILE = ".$importstatus";
+    private String RESPONSE_CACHE_DIR = "$responsecache";
+    private String BUNDLE_DIR = "$bundles";
 
     public File getLockRoot() {
       return lockRoot;
     }
 
+    /** Returns the directory of the {@link ResponseCache}, it doesn't contain import files. */
+    File getResponseCacheDir() {
+      return new File(lockRoot, RESPONSE_CACHE_DIR);
+    }
+
+    /** Returns the directory of the exported project bundles, it doesn't contain import files. */
+    File getBundleDir() {
+      return new File(lockRoot, BUNDLE_DIR);
+    }
+
     File getImportStatusFile(String id) {
       return new File(lockRoot, format("%s%s", id, SUFFIX_IMPORT_STATUS_FILE));
     }
 
+    /**
+     * Returns the file that is locked while a slice of the changes of a project is imported. Only
+     * its lock file is ever created.
+     */
+    File getSliceFile(String id, ChangeSlice slice) {
+      return new File(lockRoot, format("%s%s.%s", id, SUFFIX_IMPORT_STATUS_FILE, slice.getName()));
+    }
+
     String resolveProjectName(File f) throws IOException {
       if (!f.isFile()) {
         throw new RuntimeException(
@@ -16,7 +16,7 @@ package com.googlesource.gerrit.plugins.importer;
 
 import static com.google.gerrit.extensions.restapi.Url.encode;
 
-import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.gerrit.extensions.client.ListChangesOption;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.common.CommentInfo;
@@ -27,20 +27,41 @@ import com.google.gerrit.extensions.common.SshKeyInfo;
 import com.google.gerrit.extensions.restapi.BadRequestException;
 import com.google.gerrit.server.OutputFormat;
 import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
 import java.io.IOException;
+import java.lang.reflect.Type;
 import java.net.UnknownHostException;
+import java.util.Collection;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 import org.apache.http.HttpStatus;
 
 class RemoteApi implements GerritApi {
+  private static final EnumSet<ListChangesOption> DETAILS =
+      EnumSet.of(
+          ListChangesOption.DETAILED_LABELS,
+          ListChangesOption.DETAILED_ACCOUNTS,
+          ListChangesOption.MESSAGES,
+          ListChangesOption.CURRENT_REVISION,
+          ListChangesOption.ALL_REVISIONS,
+          ListChangesOption.ALL_COMMITS);
 
   private final RestSession restSession;
 
-  RemoteApi(String url, String user, String pass) {
-    restSession = new RestSession(url, user, pass);
+  RemoteApi(
+      String url,
+      String user,
+      String pass,
+      ConnectionConfig connectionConfig,
+      RequestThrottle throttle,
+      SourceMetrics metrics,
+      ResponseCache cache) {
+    restSession = new RestSession(url, user, pass, connectionConfig, throttle, metrics, cache);
   }
 
   @Override
@@ -48,42 +69,228 @@ class RemoteApi implements GerritApi {
     projectName = encode(projectName);
     String endPoint = "/projects/" + projectName;
     try (RestResponse r = checkedGet(endPoint)) {
-      return newGson().fromJson(r.getReader(), new TypeToken<ProjectInfo>() {}.getType());
+      return decode(endPoint, r, new TypeToken<ProjectInfo>() {}.getType());
     }
   }
 
   @Override
-  public List<ChangeInfo> queryChanges(String projectName, int start, int limit)
+  public ChangeStream streamChanges(String projectName, ChangePageKey key, int limit)
+      throws IOException, BadRequestException {
+    return new PageStream(projectName, key, limit, DETAILS);
+  }
+
+  @Override
+  public ChangeStream listChanges(String projectName, ChangePageKey key, int limit)
+      throws IOException, BadRequestException {
+    return new PageStream(projectName, key, limit, EnumSet.noneOf(ListChangesOption.class));
+  }
+
+  @Override
+  public ChangeStream getChanges(Collection<Integer> changeNumbers)
+      throws IOException, BadRequestException {
+    String query =
+        changeNumbers.stream().map(n -> "change:" + n).collect(Collectors.joining(" OR "));
+    return streamChanges(0, changeNumbers.size(), encode(query), DETAILS);
+  }
+
+  @Override
+  public Long getRepositorySize(String projectName) throws IOException {
+    String endPoint = "/projects/" + encode(projectName) + "/statistics.git";
+    Map<String, Object> statistics;
+    try (RestResponse r = restSession.get(endPoint)) {
+      if (r.getStatusCode() < 200 || 300 <= r.getStatusCode()) {
+        // requires the 'Run Garbage Collection' capability on the source system
+        return null;
+      }
+      statistics = decode(endPoint, r, new TypeToken<Map<String, Object>>() {}.getType());
+    }
+    long size = 0;
+    for (String key : new String[] {"size_of_loose_objects", "size_of_packed_objects"}) {
+      Object value = statistics.get(key);
+      if (value instanceof Number) {
+        size += ((Number) value).longValue();
+      }
+    }
+    return size;
+  }
+
+  private ChangeStream streamChanges(
+      int start, int limit, String query, EnumSet<ListChangesOption> options)
+      throws IOException, BadRequestException {
+    return streamChanges(start, limit, query, options, restSession.newRetries());
+  }
+
+  private JsonChangeStream streamChanges(
+      int start,
+      int limit,
+      String query,
+      EnumSet<ListChangesOption> options,
+      RestSession.Retries retries)
       throws IOException, BadRequestException {
     String endPoint =
         "/changes/?S="
             + start
             + ((limit > 0) ? "&n=" + limit : "")
-            + "&q=project:"
-            + projectName
-            + "&O="
-            + Integer.toHexString(
-                ListChangesOption.toBits(
-                    EnumSet.of(
-                        ListChangesOption.DETAILED_LABELS,
-                        ListChangesOption.DETAILED_ACCOUNTS,
-                        ListChangesOption.MESSAGES,
-                        ListChangesOption.CURRENT_REVISION,
-                        ListChangesOption.ALL_REVISIONS,
-                        ListChangesOption.ALL_COMMITS)));
-
-    List<ChangeInfo> result;
-    try (RestResponse r = checkedGet(endPoint)) {
-      result = newGson().fromJson(r.getReader(), new TypeToken<List<ChangeInfo>>() {}.getType());
+            + "&q="
+            + query
+            + (!options.isEmpty()
+                ? "&O=" + Integer.toHexString(ListChangesOption.toBits(options))
+                : "");
+
+    RestResponse r = checkedGet(endPoint, retries);
+    try {
+      return new JsonChangeStream(endPoint, r);
+    } catch (IOException | RuntimeException e) {
+      r.close();
+      throw e;
+    }
+  }
+
+  /**
+   * Streams one page of a change listing.
+   *
+   * <p>If reading the response fails with a transient error, e.g. if the connection is reset or
+   * times out while the page is received, the rest of the page is requested once more, starting
+   * after the last change that was returned. All requests for the page share one retry budget, so
+   * that a failing page is given up after the retry timeout of the source system.
+   */
+  private class PageStream implements ChangeStream {
+    private final String projectName;
+    private final EnumSet<ListChangesOption> options;
+    private final RestSession.Retries retries;
+    private final boolean limited;
+    private ChangePageKey key;
+    private int remaining;
+    private JsonChangeStream changes;
+    private long bytesRead;
+
+    PageStream(
+        String projectName, ChangePageKey key, int limit, EnumSet<ListChangesOption> options)
+        throws IOException, BadRequestException {
+      this.projectName = projectName;
+      this.options = options;
+      this.retries = restSession.newRetries();
+      this.limited = limit > 0;
+      this.key = key;
+      this.remaining = limit;
+      this.changes = open();
+    }
+
+    private JsonChangeStream open() throws IOException, BadRequestException {
+      return streamChanges(key.skip, remaining, encode(key.toQuery(projectName)), options, retries);
     }
 
-    for (ChangeInfo c : result) {
-      for (Map.Entry<String, RevisionInfo> e : c.revisions.entrySet()) {
-        e.getValue().commit.commit = e.getKey();
+    @Override
+    public ChangeInfo next() throws IOException, BadRequestException {
+      while (changes != null) {
+        ChangeInfo c;
+        try {
+          c = changes.next();
+        } catch (IOException e) {
+          String endPoint = changes.endPoint;
+          bytesRead += changes.getBytesRead();
+          try {
+            changes.close();
+          } catch (IOException closeException) {
+            e.addSuppressed(closeException);
+          }
+          changes = null;
+          if (!isReadError(e) || !retries.awaitRetry(endPoint, e)) {
+            throw e;
+          }
+          if (!limited || remaining > 0) {
+            changes = open();
+          }
+          continue;
+        }
+        if (c != null) {
+          key = key.after(c);
+          remaining--;
+        }
+        return c;
       }
+      return null;
     }
 
-    return result;
+    @Override
+    public long getBytesRead() {
+      return bytesRead + (changes != null ? changes.getBytesRead() : 0);
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (changes != null) {
+        changes.close();
+      }
+    }
+  }
+
+  /** Whether a response couldn't be read, as opposed to a response that isn't valid JSON. */
+  private static boolean isReadError(IOException e) {
+    return !(e instanceof MalformedJsonException || e.getCause() instanceof JsonParseException);
+  }
+
+  /** Decodes the changes of a change query response one at a time. */
+  private class JsonChangeStream implements ChangeStream {
+    private final String endPoint;
+    private final RestResponse response;
+    private final JsonReader reader;
+    private final Gson gson = newGson();
+    private long decodeNanos;
+    private boolean done;
+
+    JsonChangeStream(String endPoint, RestResponse response) throws IOException {
+      this.endPoint = endPoint;
+      this.response = response;
+      this.reader = new JsonReader(response.getReader());
+      reader.beginArray();
+    }
+
+    @Override
+    public ChangeInfo next() throws IOException {
+      long start = System.nanoTime();
+      ChangeInfo c;
+      try {
+        if (!reader.hasNext()) {
+          done = true;
+          return null;
+        }
+        c = gson.fromJson(reader, ChangeInfo.class);
+      } catch (JsonParseException e) {
+        // Gson wraps the errors of reading the response
+        if (e.getCause() instanceof IOException) {
+          throw (IOException) e.getCause();
+        }
+        throw new IOException("Invalid change in query response", e);
+      } finally {
+        decodeNanos += System.nanoTime() - start;
+      }
+      if (c.revisions != null) {
+        for (Map.Entry<String, RevisionInfo> e : c.revisions.entrySet()) {
+          e.getValue().commit.commit = e.getKey();
+        }
+      }
+      return c;
+    }
+
+    @Override
+    public long getBytesRead() {
+      return response.getBytesRead();
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (done) {
+          response.close();
+        } else {
+          // don't read the rest of a page that is abandoned
+          response.abort();
+        }
+      } finally {
+        restSession.responseDecoded(endPoint, response, decodeNanos);
+      }
+    }
   }
 
   @Override
@@ -91,38 +298,25 @@ class RemoteApi implements GerritApi {
     groupName = encode(groupName);
     String endPoint = "/groups/" + groupName + "/detail";
     try (RestResponse r = checkedGet(endPoint)) {
-      return newGson().fromJson(r.getReader(), new TypeToken<GroupInfo>() {}.getType());
+      return decode(endPoint, r, new TypeToken<GroupInfo>() {}.getType());
     }
   }
 
   @Override
-  public Iterable<CommentInfo> getComments(int changeId, String rev)
+  public ListMultimap<Integer, CommentInfo> getComments(int changeId)
       throws IOException, BadRequestException {
-    String endPoint = "/changes/" + changeId + "/revisions/" + rev + "/comments";
-    Map<String, List<CommentInfo>> result;
-    try (RestResponse r = restSession.get(endPoint)) {
-      if (r.getStatusCode() == HttpStatus.SC_NOT_FOUND) {
-        return null;
-      }
-      assertOK(HttpMethod.GET, endPoint, r);
-      result =
-          newGson()
-              .fromJson(
-                  r.getReader(), new TypeToken<Map<String, List<CommentInfo>>>() {}.getType());
-    }
-    for (Map.Entry<String, List<CommentInfo>> e : result.entrySet()) {
-      for (CommentInfo i : e.getValue()) {
-        i.path = e.getKey();
-      }
+    String endPoint = "/changes/" + changeId + "/comments";
+    try (RestResponse r = checkedGet(endPoint)) {
+      return GerritApi.byPatchSet(
+          decode(endPoint, r, new TypeToken<Map<String, List<CommentInfo>>>() {}.getType()));
     }
-    return Iterables.concat(result.values());
   }
 
   @Override
   public List<SshKeyInfo> getSshKeys(String userId) throws BadRequestException, IOException {
     String endPoint = "/accounts/" + userId + "/sshkeys/";
     try (RestResponse r = checkedGet(endPoint)) {
-      return newGson().fromJson(r.getReader(), new TypeToken<List<SshKeyInfo>>() {}.getType());
+      return decode(endPoint, r, new TypeToken<List<SshKeyInfo>>() {}.getType());
     }
   }
 
@@ -130,18 +324,33 @@ class RemoteApi implements GerritApi {
   public Version getVersion() throws BadRequestException, IOException {
     String endPoint = "/config/server/version";
     try (RestResponse r = checkedGet(endPoint)) {
-      return new Version(
-          (String) newGson().fromJson(r.getReader(), new TypeToken<String>() {}.getType()));
+      return new Version(decode(endPoint, r, new TypeToken<String>() {}.getType()));
     }
   }
 
+  /**
+   * Decodes the body of the given response and records its size and the time that it took to read
+   * and decode it.
+   */
+  private <T> T decode(String endPoint, RestResponse r, Type type) throws IOException {
+    long start = System.nanoTime();
+    T result = newGson().fromJson(r.getReader(), type);
+    restSession.responseDecoded(endPoint, r, System.nanoTime() - start);
+    return result;
+  }
+
   private static Gson newGson() {
     return OutputFormat.JSON_COMPACT.newGson();
   }
 
   private RestResponse checkedGet(String endPoint) throws IOException, BadRequestException {
+    return checkedGet(endPoint, restSession.newRetries());
+  }
+
+  private RestResponse checkedGet(String endPoint, RestSession.Retries retries)
+      throws IOException, BadRequestException {
     try {
-      RestResponse r = restSession.get(endPoint);
+      RestResponse r = restSession.get(endPoint, retries);
       assertOK(HttpMethod.GET, endPoint, r);
       return r;
     } catch (UnknownHostException e) {
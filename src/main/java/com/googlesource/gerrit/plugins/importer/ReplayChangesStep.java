@@ -14,11 +14,14 @@
 
 package com.googlesource.gerrit.plugins.importer;
 
-import com.google.common.collect.Iterators;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.gerrit.common.Nullable;
-import com.google.gerrit.common.data.GlobalCapability;
+import com.google.gerrit.common.TimeUtil;
 import com.google.gerrit.common.errors.NoSuchAccountException;
 import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommentInfo;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.Url;
 import com.google.gerrit.reviewdb.client.Branch;
@@ -28,6 +31,8 @@ import com.google.gerrit.reviewdb.client.RefNames;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.Sequences;
 import com.google.gerrit.server.index.change.ChangeIndexer;
+import com.google.gerrit.server.notedb.ChangeNotes;
+import com.google.gerrit.server.notedb.ChangeNotes.Factory.ChangeNotesResult;
 import com.google.gerrit.server.notedb.NotesMigration;
 import com.google.gerrit.server.patch.PatchListNotAvailableException;
 import com.google.gerrit.server.project.NoSuchChangeException;
@@ -38,10 +43,27 @@ import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.Provider;
 import com.google.inject.assistedinject.Assisted;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -63,18 +85,52 @@ class ReplayChangesStep {
         ProgressMonitor pm);
   }
 
+  /**
+   * Persists the replay position and the changes that failed so far, so that an interrupted import
+   * can be resumed from there.
+   */
+  interface Checkpointer {
+    void checkpoint(ReplayCheckpoint checkpoint, Collection<FailedChange> failedChanges)
+        throws IOException, RestApiException;
+  }
+
   private static Logger log = LoggerFactory.getLogger(ReplayChangesStep.class);
 
+  /**
+   * On resume, changes that were updated up to this long before the recorded high-water mark are
+   * listed again. This covers changes that were not yet visible in the index of the source system
+   * when the previous import listed the changes.
+   */
+  private static final long RESUME_OVERLAP_MS = TimeUnit.MINUTES.toMillis(10);
+
+  /**
+   * On resume most changes usually exist already, hence change IDs are reserved in smaller blocks
+   * than on the initial import, where a block for a whole page is reserved.
+   */
+  private static final int RESUME_CHANGE_ID_BLOCK = 10;
+
+  /** Minimal time between two checkpoints of the replay position. */
+  private static final long CHECKPOINT_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+  private enum Result {
+    CREATED,
+    UPDATED,
+    SKIPPED
+  }
+
   private final ReplayRevisionsStep.Factory replayRevisionsFactory;
   private final ReplayInlineCommentsStep.Factory replayInlineCommentsFactory;
   private final ReplayMessagesStep.Factory replayMessagesFactory;
   private final AddApprovalsStep.Factory addApprovalsFactory;
   private final AddHashtagsStep.Factory addHashtagsFactory;
   private final InsertLinkToOriginalChangeStep.Factory insertLinkToOriginalFactory;
+  private final ChangeUpdateBatch.Factory changeUpdateBatchFactory;
   private final AccountUtil accountUtil;
-  private final ReviewDb db;
+  private final Provider<ReviewDb> db;
+  private final RequestContextPropagator contextPropagator;
   private final ChangeIndexer indexer;
   private final Provider<InternalChangeQuery> queryProvider;
+  private final ChangeNotes.Factory notesFactory;
   private final Sequences sequences;
   private final String fromGerrit;
   private final GerritApi api;
@@ -86,6 +142,31 @@ class ReplayChangesStep {
   private final ResumeImportStatistic importStatistic;
   private final ProgressMonitor pm;
   private final boolean isNoteDbEnabled;
+  private final Deque<Integer> changeIds = new ArrayDeque<>();
+  private final Map<Integer, FailedChange> failedChanges = new TreeMap<>();
+
+  private int threads = 1;
+  private int prefetch;
+  private boolean deferIndexing;
+  private boolean continueOnError;
+  private boolean retryFailed;
+  private ChangeSlice slice = ChangeSlice.ALL;
+  private int minPageSize = AdaptivePageSize.DEFAULT_MIN;
+  private int maxPageSize = AdaptivePageSize.DEFAULT_MAX;
+  private BatchChangeIndexer batchIndexer;
+  private AsyncGerritApi asyncApi;
+  private Timestamp since;
+  private int changeIdBlock = 1;
+  private Timestamp highWaterMark;
+  private ReplayCheckpoint checkpoint;
+  private Checkpointer checkpointer;
+  private ChangePageKey position;
+  private ChangeInfo lastReplayed;
+  private long lastCheckpoint;
+  private ReplayCheckpoint pendingCheckpoint;
+  private int pendingCheckpointAdded;
+  private int numChanges;
+  private final ExistingChanges existingChanges = new ExistingChanges();
 
   @Inject
   ReplayChangesStep(
@@ -95,10 +176,13 @@ class ReplayChangesStep {
       AddApprovalsStep.Factory addApprovalsFactory,
       AddHashtagsStep.Factory addHashtagsFactory,
       InsertLinkToOriginalChangeStep.Factory insertLinkToOriginalFactory,
+      ChangeUpdateBatch.Factory changeUpdateBatchFactory,
       AccountUtil accountUtil,
-      ReviewDb db,
+      Provider<ReviewDb> db,
+      RequestContextPropagator contextPropagator,
       ChangeIndexer indexer,
       Provider<InternalChangeQuery> queryProvider,
+      ChangeNotes.Factory notesFactory,
       Sequences sequences,
       NotesMigration migration,
       @Assisted @Nullable String fromGerrit,
@@ -116,10 +200,13 @@ class ReplayChangesStep {
     this.addApprovalsFactory = addApprovalsFactory;
     this.addHashtagsFactory = addHashtagsFactory;
     this.insertLinkToOriginalFactory = insertLinkToOriginalFactory;
+    this.changeUpdateBatchFactory = changeUpdateBatchFactory;
     this.accountUtil = accountUtil;
     this.db = db;
+    this.contextPropagator = contextPropagator;
     this.indexer = indexer;
     this.queryProvider = queryProvider;
+    this.notesFactory = notesFactory;
     this.sequences = sequences;
     this.fromGerrit = fromGerrit;
     this.api = api;
@@ -133,43 +220,513 @@ class ReplayChangesStep {
     this.isNoteDbEnabled = migration.readChanges();
   }
 
+  /**
+   * Sets the number of changes that are replayed concurrently.
+   *
+   * <p>Changes are independent of each other and can be replayed in parallel. Each worker thread
+   * runs in its own request context with its own database handle. At most twice as many changes as
+   * there are threads are in flight at any time.
+   */
+  ReplayChangesStep setThreads(int threads) {
+    this.threads = Math.max(1, threads);
+    return this;
+  }
+
+  /** Sets the number of change pages that are fetched ahead while changes are replayed. */
+  ReplayChangesStep setPrefetch(int prefetch) {
+    this.prefetch = prefetch;
+    return this;
+  }
+
+  /**
+   * Sets the slice of the changes that is replayed.
+   *
+   * <p>Other workers may concurrently replay the other slices of the same project.
+   */
+  ReplayChangesStep setSlice(ChangeSlice slice) {
+    this.slice = slice;
+    return this;
+  }
+
+  /**
+   * Sets the bounds for the number of changes that are requested per page.
+   *
+   * <p>Within these bounds the page size is adapted to the size of the changes and the latency of
+   * the source system. Values that are not positive select the default bound.
+   */
+  ReplayChangesStep setPageSize(int minPageSize, int maxPageSize) {
+    this.minPageSize =
+        minPageSize > 0
+            ? minPageSize
+            : Math.min(AdaptivePageSize.DEFAULT_MIN, Math.max(1, maxPageSize));
+    this.maxPageSize =
+        maxPageSize > 0 ? maxPageSize : Math.max(AdaptivePageSize.DEFAULT_MAX, minPageSize);
+    return this;
+  }
+
+  /**
+   * Sets whether indexing of the replayed changes is deferred.
+   *
+   * <p>If set, replayed changes are indexed in batches on a separate thread pool and are not
+   * visible in search until their batch was indexed.
+   */
+  ReplayChangesStep setDeferIndexing(boolean deferIndexing) {
+    this.deferIndexing = deferIndexing;
+    return this;
+  }
+
+  /**
+   * Sets whether the replay continues with the next change if replaying a change fails.
+   *
+   * <p>Failed changes are logged, counted and can be retrieved by {@link #getFailedChanges()}.
+   * Failures of the source system that affect all changes, like a failed listing, still abort the
+   * replay.
+   */
+  ReplayChangesStep setContinueOnError(boolean continueOnError) {
+    this.continueOnError = continueOnError;
+    return this;
+  }
+
+  /**
+   * Sets whether only the failed changes are replayed.
+   *
+   * <p>If set, the changes that were set by {@link #setFailedChanges(Collection)} are fetched by
+   * their number and replayed, even if they were not updated in the source system. No other
+   * changes are listed.
+   */
+  ReplayChangesStep setRetryFailed(boolean retryFailed) {
+    this.retryFailed = retryFailed;
+    return this;
+  }
+
+  /**
+   * Sets the changes that failed in a previous import.
+   *
+   * <p>A change is removed from the failed changes once it was replayed successfully.
+   */
+  ReplayChangesStep setFailedChanges(@Nullable Collection<FailedChange> failedChanges) {
+    this.failedChanges.clear();
+    if (failedChanges != null) {
+      for (FailedChange f : failedChanges) {
+        this.failedChanges.put(f.number, f);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Sets the high-water mark of the last successful import.
+   *
+   * <p>If set, a resume only lists the changes that were updated since then in the source system.
+   */
+  ReplayChangesStep setSince(@Nullable Timestamp since) {
+    this.since = since;
+    return this;
+  }
+
+  /**
+   * Sets the checkpoint of an interrupted import.
+   *
+   * <p>If set, a resume without force continues the listing of the interrupted import from the
+   * checkpoint and then replays the changes that were updated since the interrupted import started.
+   */
+  ReplayChangesStep setCheckpoint(@Nullable ReplayCheckpoint checkpoint) {
+    this.checkpoint = checkpoint;
+    return this;
+  }
+
+  /**
+   * Sets the checkpointer to which the replay position is reported periodically and when the replay
+   * fails.
+   */
+  ReplayChangesStep setCheckpointer(@Nullable Checkpointer checkpointer) {
+    this.checkpointer = checkpointer;
+    return this;
+  }
+
+  /**
+   * Returns the timestamp of the most recent change update in the source system that was seen by
+   * {@link #replay()}, or {@code null} if no change was seen.
+   */
+  @Nullable
+  Timestamp getHighWaterMark() {
+    return highWaterMark;
+  }
+
+  /** Returns the changes that failed to replay and were not replayed successfully since. */
+  List<FailedChange> getFailedChanges() {
+    return new ArrayList<>(failedChanges.values());
+  }
+
+  /** Returns the number of changes that were replayed, including those that were unchanged. */
+  int getNumChanges() {
+    return numChanges;
+  }
+
   void replay()
       throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
           RestApiException, UpdateException, ConfigInvalidException,
           PatchListNotAvailableException {
-    int start = 0;
-    int limit = GlobalCapability.DEFAULT_MAX_QUERY_LIMIT;
+    AdaptivePageSize pageSize = new AdaptivePageSize(minPageSize, maxPageSize);
+    batchIndexer =
+        deferIndexing
+            ? new BatchChangeIndexer(indexer, db, contextPropagator, targetProject, threads)
+            : null;
+    if (resume) {
+      try {
+        loadExistingChanges();
+      } catch (IOException | OrmException | RuntimeException e) {
+        if (batchIndexer != null) {
+          batchIndexer.close();
+        }
+        throw e;
+      }
+    }
     pm.beginTask("Replay Changes", ProgressMonitor.UNKNOWN);
-    for (; ; ) {
-      List<ChangeInfo> changes = api.queryChanges(srcProject.get(), start, limit);
-      if (changes.isEmpty()) {
-        break;
+    ExecutorService executor = threads > 1 ? newExecutor() : null;
+    // each replaying thread has the inline comments of its change in
+    // flight, and the stale change fetcher the details of the next batch
+    ExecutorService requestExecutor = newRequestExecutor(Math.max(1, threads) + 1);
+    asyncApi = api.async(requestExecutor);
+    List<ChangePageKey> listings = new ArrayList<>(2);
+    if (retryFailed) {
+      // the failed changes are fetched by number, without a listing
+    } else if (resume
+        && !force
+        && slice.isAll()
+        && checkpoint != null
+        && checkpoint.highWaterMark != null) {
+      // continue the interrupted listing, then list the changes that were
+      // updated after the interrupted listing was started
+      listings.add(checkpoint.toKey());
+      listings.add(ChangePageKey.since(minusOverlap(checkpoint.highWaterMark)));
+      highWaterMark = checkpoint.highWaterMark;
+    } else if (resume && !force && since != null) {
+      listings.add(ChangePageKey.since(minusOverlap(since)));
+    } else {
+      listings.add(ChangePageKey.FIRST);
+    }
+    // on resume most changes are usually unchanged, hence the changes are
+    // listed without details first and only the stale changes are fetched
+    // with all details; a slice lists the changes of the other slices too,
+    // hence only the changes of the slice are fetched with all details
+    boolean skipUnchanged = resume && !force;
+    boolean listFirst = skipUnchanged || !slice.isAll();
+    changeIdBlock = resume ? Math.min(maxPageSize, RESUME_CHANGE_ID_BLOCK) : pageSize.get();
+    lastCheckpoint = TimeUtil.nowMs();
+    try {
+      if (retryFailed) {
+        try (ChangeBatchFetcher fetcher =
+            new ChangeBatchFetcher(api, new ArrayList<>(failedChanges.keySet()))) {
+          replay(executor, fetcher);
+        }
       }
-      start += changes.size();
-      try (RevWalk rw = new RevWalk(repo)) {
-        ChangeInfo last = null;
-        for (ChangeInfo c : changes) {
-          try {
-            replayChange(rw, c);
-          } catch (Exception e) {
-            log.error(String.format("Failed to replay change %s.", Url.decode(c.id)), e);
-            throw e;
+      for (ChangePageKey first : listings) {
+        position = first;
+        try (ChangePageFetcher fetcher =
+            new ChangePageFetcher(
+                api, srcProject, first, slice, !listFirst, pageSize, prefetch, contextPropagator)) {
+          if (listFirst) {
+            try (StaleChangeFetcher stale =
+                new StaleChangeFetcher(
+                    asyncApi, fetcher, skipUnchanged ? this::isUnchanged : c -> false)) {
+              replay(executor, stale);
+            }
+          } else {
+            replay(executor, fetcher);
           }
-          last = c;
-          pm.update(1);
         }
-        if (!Boolean.TRUE.equals(last._moreChanges)) {
+      }
+      pm.endTask();
+      log.info(
+          String.format("Fetched the changes of project %s in %s.", srcProject.get(), pageSize));
+      if (batchIndexer != null) {
+        batchIndexer.finish(pm);
+      }
+    } catch (Exception e) {
+      // remember how far the changes were replayed, so that a resume can
+      // continue from there
+      try {
+        finalCheckpoint();
+      } catch (Exception checkpointException) {
+        e.addSuppressed(checkpointException);
+      }
+      throw e;
+    } finally {
+      if (executor != null) {
+        executor.shutdownNow();
+      }
+      requestExecutor.shutdownNow();
+      if (batchIndexer != null) {
+        batchIndexer.close();
+      }
+    }
+  }
+
+  /**
+   * Returns the next change ID from the locally reserved block.
+   *
+   * <p>Reserving the IDs in blocks avoids an update of the change sequence for each created change,
+   * which would contend with changes that are concurrently created on the target system.
+   */
+  private synchronized Change.Id nextChangeId() throws OrmException {
+    if (changeIds.isEmpty()) {
+      changeIds.addAll(sequences.nextChangeIds(changeIdBlock));
+    }
+    return new Change.Id(changeIds.remove());
+  }
+
+  private void updateHighWaterMark(ChangeInfo c) {
+    if (highWaterMark == null || c.updated.after(highWaterMark)) {
+      highWaterMark = c.updated;
+    }
+  }
+
+  private static Timestamp minusOverlap(Timestamp t) {
+    return new Timestamp(t.getTime() - RESUME_OVERLAP_MS);
+  }
+
+  /**
+   * Advances the replay position past the given change, which must be the next change of the
+   * listing, after it was replayed.
+   */
+  private void replayed(ChangeInfo c) throws IOException, RestApiException {
+    if (position == null) {
+      // the change was fetched by number, not as part of a listing
+      numChanges++;
+      pm.update(1);
+      return;
+    }
+    position = position.after(c);
+    lastReplayed = c;
+    numChanges++;
+    pm.update(1);
+    if (TimeUtil.nowMs() - lastCheckpoint >= CHECKPOINT_INTERVAL_MS) {
+      checkpoint();
+    }
+  }
+
+  /**
+   * Persists a replay position up to which all changes are indexed, without waiting for the
+   * indexing.
+   *
+   * <p>A checkpoint only reports progress for changes that are indexed. Changes that were still
+   * queued for indexing when an import was interrupted are indexed by the resume, see {@link
+   * #loadExistingChanges()}. With deferred indexing the current position is remembered together
+   * with the number of changes that were handed to the batch indexer, and it is only persisted by a
+   * later checkpoint once that many changes are indexed.
+   */
+  private void checkpoint() throws IOException, RestApiException {
+    lastCheckpoint = TimeUtil.nowMs();
+    // the position doesn't account for the skipped changes of other slices
+    if (checkpointer == null || !slice.isAll()) {
+      return;
+    }
+    if (batchIndexer == null) {
+      if (lastReplayed != null) {
+        checkpointer.checkpoint(currentCheckpoint(), failedChanges.values());
+      }
+      return;
+    }
+    if (pendingCheckpoint != null && pendingCheckpointAdded <= batchIndexer.getIndexed()) {
+      checkpointer.checkpoint(pendingCheckpoint, failedChanges.values());
+      pendingCheckpoint = null;
+    }
+    if (pendingCheckpoint == null && lastReplayed != null) {
+      pendingCheckpointAdded = batchIndexer.getAdded();
+      pendingCheckpoint = currentCheckpoint();
+    }
+  }
+
+  /** Persists the current replay position, once all changes before it are indexed. */
+  private void finalCheckpoint() throws IOException, OrmException, RestApiException {
+    if (batchIndexer != null) {
+      batchIndexer.finish(NullProgressMonitor.INSTANCE);
+    }
+    if (checkpointer != null && lastReplayed != null && slice.isAll()) {
+      checkpointer.checkpoint(currentCheckpoint(), failedChanges.values());
+    }
+  }
+
+  /** Returns the checkpoint for the current replay position and consumes the replayed change. */
+  private ReplayCheckpoint currentCheckpoint() {
+    ReplayCheckpoint c =
+        ReplayCheckpoint.create(position, highWaterMark, Url.decode(lastReplayed.id));
+    lastReplayed = null;
+    return c;
+  }
+
+  private ExecutorService newExecutor() {
+    return Executors.newFixedThreadPool(
+        threads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("Import-" + targetProject.get() + "-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  private ExecutorService newRequestExecutor(int requestThreads) {
+    return Executors.newFixedThreadPool(
+        requestThreads,
+        new ThreadFactoryBuilder()
+            .setNameFormat("Import-" + targetProject.get() + "-requests-%d")
+            .setDaemon(true)
+            .build());
+  }
+
+  private void replay(@Nullable ExecutorService executor, ChangeStream changes)
+      throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
+          RestApiException, UpdateException, ConfigInvalidException,
+          PatchListNotAvailableException {
+    if (executor != null) {
+      replayConcurrently(executor, changes);
+    } else {
+      replaySerially(changes);
+    }
+  }
+
+  private void replaySerially(ChangeStream changes)
+      throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
+          RestApiException, UpdateException, ConfigInvalidException,
+          PatchListNotAvailableException {
+    for (ChangeInfo c = changes.next(); c != null; c = changes.next()) {
+      updateHighWaterMark(c);
+      try {
+        count(replayChange(c));
+        failedChanges.remove(c._number);
+      } catch (Exception e) {
+        failed(c, e);
+      }
+      replayed(c);
+    }
+  }
+
+  private void replayConcurrently(ExecutorService executor, ChangeStream changes)
+      throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
+          RestApiException, UpdateException, ConfigInvalidException,
+          PatchListNotAvailableException {
+    // Changes are submitted while they are read from the source system. The
+    // number of changes in flight is bounded, so that a slow target doesn't
+    // make the listed changes pile up in memory. Statistics and progress are
+    // only updated from the calling thread, in the order in which the changes
+    // were listed.
+    Deque<InFlight> inFlight = new ArrayDeque<>();
+    try {
+      for (; ; ) {
+        ChangeInfo c = changes.next();
+        if (c == null) {
           break;
         }
+        updateHighWaterMark(c);
+        inFlight.add(
+            new InFlight(c, executor.submit(contextPropagator.wrap(() -> replayChange(c)))));
+        if (inFlight.size() >= 2 * threads) {
+          complete(inFlight.remove());
+        }
+      }
+      while (!inFlight.isEmpty()) {
+        complete(inFlight.remove());
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while replaying changes");
+    } finally {
+      for (InFlight f : inFlight) {
+        f.result.cancel(true);
       }
     }
-    pm.endTask();
   }
 
-  private void replayChange(RevWalk rw, ChangeInfo c)
+  private static class InFlight {
+    final ChangeInfo change;
+    final Future<Result> result;
+
+    InFlight(ChangeInfo change, Future<Result> result) {
+      this.change = change;
+      this.result = result;
+    }
+  }
+
+  private void complete(InFlight f)
+      throws InterruptedException, IOException, OrmException, NoSuchAccountException,
+          NoSuchChangeException, RestApiException, UpdateException, ConfigInvalidException,
+          PatchListNotAvailableException {
+    try {
+      count(f.result.get());
+      failedChanges.remove(f.change._number);
+    } catch (ExecutionException e) {
+      failed(f.change, e.getCause());
+    }
+    replayed(f.change);
+  }
+
+  private Result replayChange(ChangeInfo c)
+      throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
+          RestApiException, UpdateException, ConfigInvalidException,
+          PatchListNotAvailableException {
+    try (RevWalk rw = new RevWalk(repo)) {
+      return replayChange(rw, c);
+    } catch (Exception e) {
+      log.error(String.format("Failed to replay change %s.", Url.decode(c.id)), e);
+      throw e;
+    }
+  }
+
+  /**
+   * Records that replaying the given change failed, if the replay continues on error. Otherwise, or
+   * if the replay was interrupted, the failure is propagated.
+   */
+  private void failed(ChangeInfo c, Throwable t)
+      throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
+          RestApiException, UpdateException, ConfigInvalidException,
+          PatchListNotAvailableException {
+    if (!continueOnError || t instanceof InterruptedIOException || t instanceof Error) {
+      propagate(t);
+    }
+    failedChanges.put(c._number, FailedChange.create(c, t));
+    importStatistic.numChangesFailed++;
+  }
+
+  private void count(Result result) {
+    switch (result) {
+      case CREATED:
+        importStatistic.numChangesCreated++;
+        break;
+      case UPDATED:
+        importStatistic.numChangesUpdated++;
+        break;
+      case SKIPPED:
+      default:
+        break;
+    }
+  }
+
+  private static void propagate(Throwable t)
+      throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
+          RestApiException, UpdateException, ConfigInvalidException,
+          PatchListNotAvailableException {
+    Throwables.throwIfInstanceOf(t, IOException.class);
+    Throwables.throwIfInstanceOf(t, OrmException.class);
+    Throwables.throwIfInstanceOf(t, NoSuchAccountException.class);
+    Throwables.throwIfInstanceOf(t, NoSuchChangeException.class);
+    Throwables.throwIfInstanceOf(t, RestApiException.class);
+    Throwables.throwIfInstanceOf(t, UpdateException.class);
+    Throwables.throwIfInstanceOf(t, ConfigInvalidException.class);
+    Throwables.throwIfInstanceOf(t, PatchListNotAvailableException.class);
+    Throwables.throwIfUnchecked(t);
+    throw new IOException(t);
+  }
+
+  private Result replayChange(RevWalk rw, ChangeInfo c)
       throws IOException, OrmException, NoSuchAccountException, NoSuchChangeException,
           RestApiException, IllegalArgumentException, UpdateException, ConfigInvalidException,
           PatchListNotAvailableException {
+    if (c.revisions == null) {
+      // the change was only listed, as it is unchanged since the last import
+      // or it was deleted in the source system after it was listed
+      return Result.SKIPPED;
+    }
+
     Change change = resume ? findChange(c) : null;
     boolean resumeChange;
     if (change == null) {
@@ -177,56 +734,122 @@ class ReplayChangesStep {
       change = createChange(c);
     } else {
       resumeChange = true;
-      if (!force && change.getLastUpdatedOn().equals(c.updated)) {
+      if (!force && !retryFailed && change.getLastUpdatedOn().equals(c.updated)) {
         // change was not modified since last import
-        return;
+        return Result.SKIPPED;
       }
     }
 
     if (c.revisions.isEmpty()) {
       log.warn(String.format("Change %s has no revisions.", c.id));
-      return;
+      return Result.SKIPPED;
     }
 
+    // the inline comments are fetched while the revisions are replayed
+    Future<ListMultimap<Integer, CommentInfo>> inlineComments = asyncApi.getComments(c._number);
     replayRevisionsFactory.create(repo, rw, change, c).replay(api);
     upsertChange(resumeChange, change, c);
 
-    replayInlineCommentsFactory.create(change, c, api, resumeChange).replay();
-    replayMessagesFactory.create(change, c, resumeChange).replay(api);
-    addApprovalsFactory.create(change, c, resume).add(api);
+    ChangeUpdateBatch updates = changeUpdateBatchFactory.create(change);
+    replayInlineCommentsFactory
+        .create(change, c, updates, api, inlineComments, resumeChange)
+        .replay();
+    replayMessagesFactory.create(change, c, updates, resumeChange).replay(api);
+    addApprovalsFactory.create(change, c, updates, resume).add(api);
     if (isNoteDbEnabled) {
-      addHashtagsFactory.create(change, c, resumeChange).add();
+      addHashtagsFactory.create(change, c, updates, resumeChange).add();
     }
 
-    insertLinkToOriginalFactory.create(fromGerrit, change, c, resumeChange).insert();
-
-    indexer.index(db, change);
+    insertLinkToOriginalFactory.create(fromGerrit, change, c, updates, resumeChange).insert();
+    updates.commit();
+    if (resume) {
+      // a later listing of this resume may list the change once more
+      existingChanges.add(change.getDest(), change.getKey(), change.getId(), c.updated);
+    }
 
-    if (resumeChange) {
-      importStatistic.numChangesUpdated++;
+    if (batchIndexer != null) {
+      batchIndexer.add(change);
     } else {
-      importStatistic.numChangesCreated++;
+      indexer.index(db.get(), change);
+    }
+
+    return resumeChange ? Result.UPDATED : Result.CREATED;
+  }
+
+  /**
+   * Loads the IDs of all changes of the target project, so that the changes that were imported
+   * before can be looked up without querying the index for each source change.
+   *
+   * <p>The changes are read from the change data, not from the index: with deferred indexing an
+   * interrupted import may have replayed changes that were not indexed yet. These changes are found
+   * nevertheless, so that they are not created once more, and they are indexed now.
+   */
+  private void loadExistingChanges() throws IOException, OrmException {
+    pm.beginTask("Load existing changes", ProgressMonitor.UNKNOWN);
+    Map<Change.Id, Change> byId = new HashMap<>();
+    try (Stream<ChangeNotesResult> results = notesFactory.scan(repo, db.get(), targetProject)) {
+      for (ChangeNotesResult r : (Iterable<ChangeNotesResult>) results::iterator) {
+        if (r.error().isPresent()) {
+          log.warn(
+              String.format("Failed to load change %s of project %s", r.id(), targetProject),
+              r.error().get());
+          continue;
+        }
+        Change change = r.notes().getChange();
+        existingChanges.add(
+            change.getDest(), change.getKey(), change.getId(), change.getLastUpdatedOn());
+        byId.put(change.getId(), change);
+        pm.update(1);
+      }
+    }
+    pm.endTask();
+
+    for (ChangeData cd : queryProvider.get().byProject(targetProject)) {
+      byId.remove(cd.getId());
+    }
+    if (!byId.isEmpty()) {
+      log.info(
+          String.format(
+              "Indexing %d changes of project %s that were imported, but not indexed.",
+              byId.size(), targetProject));
+      for (Change change : byId.values()) {
+        if (batchIndexer != null) {
+          batchIndexer.add(change);
+        } else {
+          indexer.index(db.get(), change);
+        }
+      }
     }
   }
 
   private Change findChange(ChangeInfo c) throws OrmException {
-    List<Change> changes =
-        ChangeData.asChanges(
-            queryProvider
-                .get()
-                .byBranchKey(
-                    new Branch.NameKey(targetProject, RefNames.fullName(c.branch)),
-                    new Change.Key(c.changeId)));
-    if (changes.isEmpty()) {
+    Change.Id id = findChangeId(c);
+    if (id == null) {
       return null;
     }
-    return db.changes().get(Iterators.getOnlyElement(changes.iterator()).getId());
+    return db.get().changes().get(id);
+  }
+
+  private Change.Id findChangeId(ChangeInfo c) {
+    return existingChanges.find(dest(c), new Change.Key(c.changeId));
+  }
+
+  private Branch.NameKey dest(ChangeInfo c) {
+    return new Branch.NameKey(targetProject, RefNames.fullName(c.branch));
+  }
+
+  /**
+   * Whether the given change was imported before and was not updated in the source system since.
+   * Only the attributes of a change listing are used.
+   */
+  private boolean isUnchanged(ChangeInfo c) {
+    return existingChanges.isUnchanged(dest(c), new Change.Key(c.changeId), c.updated);
   }
 
   private Change createChange(ChangeInfo c)
       throws OrmException, NoSuchAccountException, IOException, RestApiException,
           ConfigInvalidException {
-    Change.Id changeId = new Change.Id(sequences.nextChangeId());
+    Change.Id changeId = nextChangeId();
 
     Change change =
         new Change(
@@ -247,6 +870,6 @@ class ReplayChangesStep {
       change.setTopic(c.topic);
       change.setLastUpdatedOn(c.updated);
     }
-    db.changes().upsert(Collections.singleton(change));
+    db.get().changes().upsert(Collections.singleton(change));
   }
 }
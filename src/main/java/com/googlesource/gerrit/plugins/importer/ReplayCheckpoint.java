@@ -0,0 +1,45 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import java.sql.Timestamp;
+
+/**
+ * Position up to which the changes of an interrupted import were replayed.
+ *
+ * <p>All changes of the listing before the position have been replayed completely. A resume
+ * continues the listing from here instead of listing all changes again.
+ */
+public class ReplayCheckpoint {
+  public Timestamp since;
+  public Timestamp before;
+  public int skip;
+  public Timestamp highWaterMark;
+  public String change;
+
+  static ReplayCheckpoint create(ChangePageKey key, Timestamp highWaterMark, String change) {
+    ReplayCheckpoint checkpoint = new ReplayCheckpoint();
+    checkpoint.since = key.since;
+    checkpoint.before = key.before;
+    checkpoint.skip = key.skip;
+    checkpoint.highWaterMark = highWaterMark;
+    checkpoint.change = change;
+    return checkpoint;
+  }
+
+  ChangePageKey toKey() {
+    return new ChangePageKey(since, before, skip);
+  }
+}
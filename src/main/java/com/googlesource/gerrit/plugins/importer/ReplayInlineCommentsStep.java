@@ -18,6 +18,7 @@ import static com.google.gerrit.server.CommentsUtil.setCommentRevId;
 
 import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -26,6 +27,7 @@ import com.google.gerrit.common.errors.NoSuchAccountException;
 import com.google.gerrit.extensions.client.Side;
 import com.google.gerrit.extensions.common.ChangeInfo;
 import com.google.gerrit.extensions.common.CommentInfo;
+import com.google.gerrit.extensions.common.RevisionInfo;
 import com.google.gerrit.extensions.restapi.RestApiException;
 import com.google.gerrit.extensions.restapi.Url;
 import com.google.gerrit.reviewdb.client.Account;
@@ -38,7 +40,6 @@ import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.ChangeUtil;
 import com.google.gerrit.server.CommentsUtil;
-import com.google.gerrit.server.IdentifiedUser;
 import com.google.gerrit.server.PatchSetUtil;
 import com.google.gerrit.server.config.GerritServerId;
 import com.google.gerrit.server.notedb.ChangeNotes;
@@ -50,12 +51,14 @@ import com.google.gwtorm.server.OrmException;
 import com.google.inject.Inject;
 import com.google.inject.assistedinject.Assisted;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Future;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -64,61 +67,68 @@ class ReplayInlineCommentsStep {
 
   interface Factory {
     ReplayInlineCommentsStep create(
-        Change change, ChangeInfo changeInfo, GerritApi api, boolean resume);
+        Change change,
+        ChangeInfo changeInfo,
+        ChangeUpdateBatch updates,
+        GerritApi api,
+        Future<ListMultimap<Integer, CommentInfo>> inlineComments,
+        boolean resume);
   }
 
   private static final Logger log = LoggerFactory.getLogger(ReplayInlineCommentsStep.class);
 
   private final AccountUtil accountUtil;
   private final ReviewDb db;
-  private final IdentifiedUser.GenericFactory genericUserFactory;
-  private final ChangeNotes.Factory changeNotesFactory;
-  private final ChangeUpdate.Factory updateFactory;
   private final CommentsUtil commentsUtil;
   private final PatchListCache patchListCache;
   private final PatchSetUtil psUtil;
   private final String serverId;
   private final Change change;
   private final ChangeInfo changeInfo;
+  private final ChangeUpdateBatch updates;
   private final GerritApi api;
+  private final Future<ListMultimap<Integer, CommentInfo>> inlineComments;
   private final boolean resume;
 
   @Inject
   public ReplayInlineCommentsStep(
       AccountUtil accountUtil,
       ReviewDb db,
-      IdentifiedUser.GenericFactory genericUserFactory,
-      ChangeNotes.Factory changeNotesFactory,
-      ChangeUpdate.Factory updateFactory,
       CommentsUtil commentsUtil,
       PatchListCache patchListCache,
       PatchSetUtil psUtil,
       @GerritServerId String serverId,
       @Assisted Change change,
       @Assisted ChangeInfo changeInfo,
+      @Assisted ChangeUpdateBatch updates,
       @Assisted GerritApi api,
+      @Assisted Future<ListMultimap<Integer, CommentInfo>> inlineComments,
       @Assisted boolean resume) {
     this.accountUtil = accountUtil;
     this.db = db;
-    this.genericUserFactory = genericUserFactory;
-    this.changeNotesFactory = changeNotesFactory;
-    this.updateFactory = updateFactory;
     this.commentsUtil = commentsUtil;
     this.patchListCache = patchListCache;
     this.psUtil = psUtil;
     this.serverId = serverId;
     this.change = change;
     this.changeInfo = changeInfo;
+    this.updates = updates;
     this.api = api;
+    this.inlineComments = inlineComments;
     this.resume = resume;
   }
 
   void replay()
       throws RestApiException, OrmException, IOException, NoSuchChangeException,
           NoSuchAccountException, ConfigInvalidException, PatchListNotAvailableException {
-    ChangeNotes notes = changeNotesFactory.createChecked(db, change);
+    ChangeNotes notes = updates.notes();
+    // the comments of all patch sets were requested at once, while the
+    // revisions were replayed
+    ListMultimap<Integer, CommentInfo> commentsByPatchSet = AsyncGerritApi.await(inlineComments);
     for (PatchSet ps : ChangeUtil.PS_ID_ORDER.sortedCopy(psUtil.byChange(db, notes))) {
-      Iterable<CommentInfo> comments = api.getComments(changeInfo._number, ps.getRevision().get());
+      RevisionInfo rev = changeInfo.revisions.get(ps.getRevision().get());
+      Iterable<CommentInfo> comments =
+          rev != null ? new ArrayList<>(commentsByPatchSet.get(rev._number)) : null;
       if (resume) {
         if (comments == null) {
           // the revision does not exist in the source system,
@@ -175,7 +185,7 @@ class ReplayInlineCommentsStep {
 
   private void insertComments(PatchSet ps, Account.Id author, Collection<CommentInfo> comments)
       throws OrmException, IOException, NoSuchChangeException, PatchListNotAvailableException {
-    ChangeNotes notes = changeNotesFactory.createChecked(db, change);
+    ChangeNotes notes = updates.notes();
 
     Map<String, Comment> drafts = scanDraftComments(notes, ps, author);
 
@@ -212,13 +222,11 @@ class ReplayInlineCommentsStep {
     }
 
     Iterables.addAll(del, drafts.values());
-    ChangeUpdate update =
-        updateFactory.create(notes, genericUserFactory.create(author), TimeUtil.nowTs());
+    ChangeUpdate update = updates.newUpdate(author, TimeUtil.nowTs());
     update.setPatchSetId(ps.getId());
 
     commentsUtil.deleteComments(db, update, del);
     commentsUtil.putComments(db, update, Status.PUBLISHED, ups);
-    update.commit();
   }
 
   private Map<String, Comment> scanDraftComments(ChangeNotes notes, PatchSet ps, Account.Id account)
@@ -24,9 +24,6 @@ import com.google.gerrit.reviewdb.client.ChangeMessage;
 import com.google.gerrit.reviewdb.client.PatchSet;
 import com.google.gerrit.reviewdb.server.ReviewDb;
 import com.google.gerrit.server.ChangeMessagesUtil;
-import com.google.gerrit.server.CurrentUser;
-import com.google.gerrit.server.IdentifiedUser;
-import com.google.gerrit.server.notedb.ChangeNotes;
 import com.google.gerrit.server.notedb.ChangeUpdate;
 import com.google.gerrit.server.project.NoSuchChangeException;
 import com.google.gwtorm.server.OrmException;
@@ -40,38 +37,33 @@ import org.eclipse.jgit.errors.ConfigInvalidException;
 class ReplayMessagesStep {
 
   interface Factory {
-    ReplayMessagesStep create(Change change, ChangeInfo changeInfo, boolean resume);
+    ReplayMessagesStep create(
+        Change change, ChangeInfo changeInfo, ChangeUpdateBatch updates, boolean resume);
   }
 
   private final AccountUtil accountUtil;
-  private final ChangeUpdate.Factory updateFactory;
   private final ChangeMessagesUtil cmUtil;
   private final ReviewDb db;
-  private final IdentifiedUser.GenericFactory genericUserFactory;
-  private final ChangeNotes.Factory changeNotesFactory;
   private final Change change;
   private final ChangeInfo changeInfo;
+  private final ChangeUpdateBatch updates;
   private final boolean resume;
 
   @Inject
   public ReplayMessagesStep(
       AccountUtil accountUtil,
-      ChangeUpdate.Factory updateFactory,
       ChangeMessagesUtil cmUtil,
-      IdentifiedUser.GenericFactory genericUserFactory,
-      ChangeNotes.Factory changeNotesFactory,
       ReviewDb db,
       @Assisted Change change,
       @Assisted ChangeInfo changeInfo,
+      @Assisted ChangeUpdateBatch updates,
       @Assisted boolean resume) {
     this.accountUtil = accountUtil;
-    this.updateFactory = updateFactory;
     this.cmUtil = cmUtil;
     this.db = db;
-    this.genericUserFactory = genericUserFactory;
-    this.changeNotesFactory = changeNotesFactory;
     this.change = change;
     this.changeInfo = changeInfo;
+    this.updates = updates;
     this.resume = resume;
   }
 
@@ -90,13 +82,10 @@ class ReplayMessagesStep {
           msg._revisionNumber != null ? new PatchSet.Id(change.getId(), msg._revisionNumber) : null;
       if (msg.author != null) {
         Account.Id userId = accountUtil.resolveUser(api, msg.author);
-        ChangeNotes notes = changeNotesFactory.createChecked(db, change);
-        CurrentUser user = genericUserFactory.create(userId);
-        ChangeUpdate update = updateFactory.create(notes, user, ts);
+        ChangeUpdate update = updates.newUpdate(userId, ts);
         ChangeMessage cmsg = new ChangeMessage(msgKey, userId, ts, psId);
         cmsg.setMessage(msg.message);
         cmUtil.addChangeMessage(db, update, cmsg);
-        update.commit();
       } else {
         // Message create by the GerritPersonIdent user
         ChangeMessage cmsg =
@@ -31,12 +31,14 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import org.eclipse.jgit.errors.ConfigInvalidException;
+import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.lib.RefUpdate;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -120,8 +122,6 @@ class ReplayRevisionsStep {
         if (info.getRevId().equals(changeInfo.currentRevision)) {
           change.setCurrentPatchSet(info);
         }
-
-        updateRef(repo, ps);
       }
 
       if (change.currentPatchSetId() == null) {
@@ -141,6 +141,7 @@ class ReplayRevisionsStep {
         change.setCurrentPatchSet(info);
       }
 
+      createRefs(patchSets);
       db.patchSets().insert(patchSets);
       db.commit();
     } finally {
@@ -156,29 +157,31 @@ class ReplayRevisionsStep {
     list.sort((a, b) -> a._number - b._number);
   }
 
-  private void updateRef(Repository repo, PatchSet ps) throws IOException {
-    String ref = ps.getId().toRefName();
-    RefUpdate ru = repo.updateRef(ref);
-    ru.setExpectedOldObjectId(ObjectId.zeroId());
-    ru.setNewObjectId(ObjectId.fromString(ps.getRevision().get()));
-    RefUpdate.Result result = ru.update();
-    switch (result) {
-      case NEW:
-      case FORCED:
-      case FAST_FORWARD:
-        return;
-      case IO_FAILURE:
-      case LOCK_FAILURE:
-      case NOT_ATTEMPTED:
-      case NO_CHANGE:
-      case REJECTED:
-      case REJECTED_CURRENT_BRANCH:
-      case RENAMED:
-      case REJECTED_MISSING_OBJECT:
-      case REJECTED_OTHER_REASON:
-      default:
+  private void createRefs(List<PatchSet> patchSets) throws IOException {
+    if (patchSets.isEmpty()) {
+      return;
+    }
+    BatchRefUpdate bru = repo.getRefDatabase().newBatchUpdate();
+    // an atomic batch update on a RefDirectory rewrites the whole packed-refs
+    // file under its lock, which costs time in the number of refs of the
+    // repository for each change and serializes concurrent replays; loose
+    // refs are created instead, the ref of each patch set is checked below
+    bru.setAtomic(false);
+    for (PatchSet ps : patchSets) {
+      bru.addCommand(
+          new ReceiveCommand(
+              ObjectId.zeroId(),
+              ObjectId.fromString(ps.getRevision().get()),
+              ps.getId().toRefName()));
+    }
+    bru.execute(rw, NullProgressMonitor.INSTANCE);
+    for (ReceiveCommand cmd : bru.getCommands()) {
+      if (cmd.getResult() != ReceiveCommand.Result.OK) {
         throw new IOException(
-            String.format("Failed to create ref %s, RefUpdate.Result = %s", ref, result));
+            String.format(
+                "Failed to create ref %s, ReceiveCommand.Result = %s",
+                cmd.getRefName(), cmd.getResult()));
+      }
     }
   }
 }
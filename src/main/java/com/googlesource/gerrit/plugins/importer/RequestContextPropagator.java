@@ -0,0 +1,63 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.reviewdb.server.ReviewDb;
+import com.google.gerrit.server.CurrentUser;
+import com.google.gerrit.server.util.ManualRequestContext;
+import com.google.gerrit.server.util.ThreadLocalRequestContext;
+import com.google.gwtorm.server.SchemaFactory;
+import com.google.inject.Inject;
+import com.google.inject.Provider;
+import com.google.inject.Singleton;
+import java.util.concurrent.Callable;
+
+/**
+ * Runs import work on background threads on behalf of the importing user.
+ *
+ * <p>Each wrapped task gets its own request context with its own {@link ReviewDb} handle, since
+ * database handles must not be shared between threads.
+ */
+@Singleton
+class RequestContextPropagator {
+  private final SchemaFactory<ReviewDb> schemaFactory;
+  private final ThreadLocalRequestContext requestContext;
+  private final Provider<CurrentUser> currentUser;
+
+  @Inject
+  RequestContextPropagator(
+      SchemaFactory<ReviewDb> schemaFactory,
+      ThreadLocalRequestContext requestContext,
+      Provider<CurrentUser> currentUser) {
+    this.schemaFactory = schemaFactory;
+    this.requestContext = requestContext;
+    this.currentUser = currentUser;
+  }
+
+  /**
+   * Wraps a task so that it runs as the current user.
+   *
+   * <p>Must be invoked from a thread that runs in the request context of the import.
+   */
+  <T> Callable<T> wrap(Callable<T> callable) {
+    CurrentUser user = currentUser.get();
+    return () -> {
+      try (ManualRequestContext ctx =
+          new ManualRequestContext(user, schemaFactory, requestContext)) {
+        return callable.call();
+      }
+    };
+  }
+}
@@ -0,0 +1,213 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.common.Nullable;
+import java.io.InterruptedIOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpStatus;
+
+/**
+ * Limits the load that the imports put on a source system.
+ *
+ * <p>The rate of requests is limited by a token bucket, if a maximal rate is configured. The number
+ * of concurrent requests is limited by an additive-increase/multiplicative-decrease (AIMD)
+ * controller: the limit starts at one request and grows by one request per round of successful
+ * requests, up to the configured maximum. It is halved if the source system or a proxy in front of
+ * it responds with {@code 429 Too Many Requests}, {@code 502 Bad Gateway}, {@code 503 Service
+ * Unavailable} or {@code 504 Gateway Timeout}, if a request fails without response, e.g. by a
+ * socket timeout or a connection reset, or if the latency of a request rises to more than twice the
+ * usual latency of its endpoint.
+ *
+ * <p>The usual latency of an endpoint is the exponentially weighted moving average of the latencies
+ * of its requests, hence single fast or slow requests hardly change it. The latency of queries and
+ * of endpoints whose responses grow with the resource, e.g. the inline comments of a change, is not
+ * comparable between requests, hence it is not compared and only the status codes of their
+ * responses can decrease the limit.
+ *
+ * <p>One throttle is shared by all imports from the same source host.
+ */
+class RequestThrottle {
+  static final int SC_TOO_MANY_REQUESTS = 429;
+
+  /** A request is considered slow if its latency exceeds the usual latency by this factor. */
+  private static final double LATENCY_TOLERANCE = 2;
+
+  /**
+   * Weight of the latest latency in the moving average of the latencies of an endpoint, the same
+   * weight as TCP uses for the smoothed round-trip time.
+   */
+  private static final double LATENCY_WEIGHT = 0.125;
+
+  /** Number of requests to an endpoint before their latency is compared to the usual latency. */
+  private static final int WARM_UP_REQUESTS = 5;
+
+  /** The moving average of the latencies of an endpoint. */
+  private static class Baseline {
+    double latency;
+    int requests;
+  }
+
+  private final int maxConcurrentRequests;
+  private final double requestsPerSecond;
+  private final Map<String, Baseline> baselines = new HashMap<>();
+
+  private double limit = 1;
+  private int inFlight;
+  private double tokens;
+  private long lastRefill = System.nanoTime();
+  private long lastDecrease;
+  private long waitTime;
+  private long backoffs;
+
+  RequestThrottle(int maxConcurrentRequests, int requestsPerSecond) {
+    this.maxConcurrentRequests = Math.max(1, maxConcurrentRequests);
+    this.requestsPerSecond = requestsPerSecond;
+    this.tokens = Math.max(1, requestsPerSecond);
+  }
+
+  /**
+   * Waits until a request may be sent to the source system.
+   *
+   * <p>Each call must be followed by a call of {@link #release(String, int, long)} once the
+   * response was received or the request failed.
+   */
+  void acquire() throws InterruptedIOException {
+    long start = System.nanoTime();
+    long delay;
+    try {
+      synchronized (this) {
+        while (inFlight >= (int) limit) {
+          wait();
+        }
+        inFlight++;
+        delay = reserveToken();
+      }
+      if (delay > 0) {
+        TimeUnit.NANOSECONDS.sleep(delay);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for the source system");
+    }
+    synchronized (this) {
+      waitTime += System.nanoTime() - start;
+    }
+  }
+
+  /** Returns the time in nanoseconds until the reserved token is available. */
+  private long reserveToken() {
+    if (requestsPerSecond <= 0) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    tokens =
+        Math.min(
+            Math.max(1, requestsPerSecond),
+            tokens + (now - lastRefill) * requestsPerSecond / TimeUnit.SECONDS.toNanos(1));
+    lastRefill = now;
+    tokens--;
+    return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / requestsPerSecond);
+  }
+
+  /**
+   * Reports that a request was done and adapts the concurrency limit.
+   *
+   * @param endpoint the endpoint of the request, see {@link RestSession#endpoint(String)}, or
+   *     {@code null} if the latency of the request is not comparable to other requests, e.g. of a
+   *     query
+   * @param statusCode the status code of the response, 0 if the request failed without response
+   * @param latencyNanos the time it took until the response was received
+   */
+  synchronized void release(@Nullable String endpoint, int statusCode, long latencyNanos) {
+    inFlight--;
+    if (isOverload(statusCode)) {
+      decrease(latencyNanos);
+    } else if (endpoint == null) {
+      increase();
+    } else {
+      Baseline baseline = baselines.computeIfAbsent(endpoint, e -> new Baseline());
+      boolean slow =
+          baseline.requests >= WARM_UP_REQUESTS
+              && latencyNanos > baseline.latency * LATENCY_TOLERANCE;
+      baseline.latency =
+          baseline.requests == 0
+              ? latencyNanos
+              : baseline.latency + (latencyNanos - baseline.latency) * LATENCY_WEIGHT;
+      baseline.requests++;
+      if (slow) {
+        decrease(latencyNanos);
+      } else {
+        increase();
+      }
+    }
+    notifyAll();
+  }
+
+  /**
+   * Whether the status code of a response shows that the source system is overloaded. Requests that
+   * failed without response, status code 0, usually failed by a socket timeout or a connection
+   * reset of an overloaded system.
+   */
+  private static boolean isOverload(int statusCode) {
+    switch (statusCode) {
+      case 0:
+      case SC_TOO_MANY_REQUESTS:
+      case HttpStatus.SC_BAD_GATEWAY:
+      case HttpStatus.SC_SERVICE_UNAVAILABLE:
+      case HttpStatus.SC_GATEWAY_TIMEOUT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private void increase() {
+    limit = Math.min(maxConcurrentRequests, limit + 1 / limit);
+  }
+
+  private void decrease(long latencyNanos) {
+    // the responses of the requests that were in flight together report the
+    // same overload, the limit is only halved once for them
+    long now = System.nanoTime();
+    if (lastDecrease == 0 || now - lastDecrease > latencyNanos) {
+      limit = Math.max(1, limit / 2);
+      lastDecrease = now;
+      backoffs++;
+    }
+  }
+
+  /** Returns the current limit for the number of concurrent requests. */
+  synchronized int getConcurrencyLimit() {
+    return (int) limit;
+  }
+
+  /** Returns the number of requests that are currently sent. */
+  synchronized int getRequestsInFlight() {
+    return inFlight;
+  }
+
+  /** Returns the total time in milliseconds that requests waited before they were sent. */
+  synchronized long getWaitTime() {
+    return TimeUnit.NANOSECONDS.toMillis(waitTime);
+  }
+
+  /** Returns how often the concurrency limit was decreased. */
+  synchronized long getBackoffs() {
+    return backoffs;
+  }
+}
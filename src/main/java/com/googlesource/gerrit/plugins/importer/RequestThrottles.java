@@ -0,0 +1,100 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.metrics.CallbackMetric1;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/** Provides the {@link RequestThrottle} for each source host and reports its state as metrics. */
+@Singleton
+class RequestThrottles {
+  private final Map<String, RequestThrottle> throttles = new ConcurrentHashMap<>();
+
+  @Inject
+  RequestThrottles(MetricMaker metrics) {
+    Field<String> host = Field.ofString("host");
+    CallbackMetric1<String, Integer> concurrencyLimit =
+        metrics.newCallbackMetric(
+            "source/concurrency_limit",
+            Integer.class,
+            new Description("Current limit for concurrent requests to a source host")
+                .setGauge()
+                .setUnit("requests"),
+            host);
+    CallbackMetric1<String, Integer> inFlight =
+        metrics.newCallbackMetric(
+            "source/requests_in_flight",
+            Integer.class,
+            new Description("Requests to a source host that are currently sent")
+                .setGauge()
+                .setUnit("requests"),
+            host);
+    CallbackMetric1<String, Long> waitTime =
+        metrics.newCallbackMetric(
+            "source/throttle_wait_time",
+            Long.class,
+            new Description("Total time that requests to a source host were held back")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            host);
+    CallbackMetric1<String, Long> backoffs =
+        metrics.newCallbackMetric(
+            "source/throttle_backoff_count",
+            Long.class,
+            new Description("Number of times the concurrency limit for a source host was halved")
+                .setCumulative()
+                .setUnit("backoffs"),
+            host);
+    metrics.newTrigger(
+        ImmutableSet.of(concurrencyLimit, inFlight, waitTime, backoffs),
+        () -> {
+          for (Map.Entry<String, RequestThrottle> e : throttles.entrySet()) {
+            RequestThrottle t = e.getValue();
+            concurrencyLimit.set(e.getKey(), t.getConcurrencyLimit());
+            inFlight.set(e.getKey(), t.getRequestsInFlight());
+            waitTime.set(e.getKey(), t.getWaitTime());
+            backoffs.set(e.getKey(), t.getBackoffs());
+          }
+          concurrencyLimit.prune();
+          inFlight.prune();
+          waitTime.prune();
+          backoffs.prune();
+        });
+  }
+
+  /**
+   * Returns the throttle for the host of the given source system.
+   *
+   * <p>The throttle is created with the given settings when it is first requested for a host.
+   */
+  RequestThrottle get(String url, ConnectionConfig connectionConfig) {
+    String host = URI.create(url).getHost();
+    return throttles.computeIfAbsent(
+        host != null ? host : url,
+        h ->
+            new RequestThrottle(
+                connectionConfig.getMaxConcurrentRequests(),
+                connectionConfig.maxRequestsPerSecond));
+  }
+}
@@ -0,0 +1,45 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.reviewdb.client.Account;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The accounts that were resolved by the running imports, by the username in the source system.
+ *
+ * <p>Each import uses its own {@link GerritApi}, hence the accounts are cached per import and per
+ * source system. The entries of an import are dropped when its {@link GerritApi} is no longer
+ * used.
+ */
+class ResolvedAccounts {
+  private final Map<GerritApi, Map<String, Account.Id>> accounts =
+      Collections.synchronizedMap(new WeakHashMap<>());
+
+  /** Returns the account that the import resolved for the user, null if it wasn't resolved yet. */
+  @Nullable
+  Account.Id get(GerritApi api, String username) {
+    Map<String, Account.Id> resolved = accounts.get(api);
+    return resolved != null ? resolved.get(username) : null;
+  }
+
+  void put(GerritApi api, String username, Account.Id id) {
+    accounts.computeIfAbsent(api, k -> new ConcurrentHashMap<>()).put(username, id);
+  }
+}
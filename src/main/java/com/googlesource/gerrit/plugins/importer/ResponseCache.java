@@ -0,0 +1,263 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.Hashing;
+import com.google.gerrit.common.Nullable;
+import com.google.gerrit.extensions.annotations.PluginName;
+import com.google.gerrit.server.config.PluginConfigFactory;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.InputStreamEntity;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the responses of the source systems on disk, so that repeated imports of the same project
+ * only revalidate unchanged resources.
+ *
+ * <p>Only successful responses that carry an {@code ETag} or a {@code Last-Modified} header are
+ * cached. A cached response is revalidated by a conditional request, and if the source system
+ * responds with {@code 304 Not Modified}, the cached body is returned instead.
+ *
+ * <p>Each entry is stored in a file that starts with the validators, one per line, followed by the
+ * response body. The total size of the entries is bounded, the least recently used entries are
+ * evicted first.
+ */
+@Singleton
+class ResponseCache {
+  private static final Logger log = LoggerFactory.getLogger(ResponseCache.class);
+
+  static final String SECTION = "responseCache";
+
+  private static final long DEFAULT_MAX_SIZE = 256 * 1024 * 1024;
+
+  private final File dir;
+  private final long maxSize;
+
+  /** Sizes of the entries by key, in the order in which they were used. */
+  private LinkedHashMap<String, Long> entries;
+
+  private long size;
+
+  @Inject
+  ResponseCache(
+      ProjectsCollection projects, PluginConfigFactory cfgFactory, @PluginName String pluginName) {
+    this(
+        projects.FS_LAYOUT.getResponseCacheDir(),
+        cfgFactory
+            .getGlobalPluginConfig(pluginName)
+            .getLong(SECTION, null, "maxSize", DEFAULT_MAX_SIZE));
+  }
+
+  ResponseCache(File dir, long maxSize) {
+    this.dir = dir;
+    this.maxSize = Math.max(0, maxSize);
+  }
+
+  boolean isEnabled() {
+    return maxSize > 0;
+  }
+
+  /** Returns the key of the response of the given user for a request to the given URL. */
+  static String key(String url, String user, String endPoint) {
+    return Hashing.sha256()
+        .hashString(Strings.nullToEmpty(user) + '\0' + url + endPoint, UTF_8)
+        .toString();
+  }
+
+  /** Returns the cached entry for the given key, {@code null} if the response is not cached. */
+  @Nullable
+  Entry get(String key) {
+    if (!use(key)) {
+      return null;
+    }
+    File f = new File(dir, key);
+    try (InputStream in = new FileInputStream(f)) {
+      String etag = Strings.emptyToNull(readLine(in));
+      String lastModified = Strings.emptyToNull(readLine(in));
+      // keep the order of use across restarts
+      f.setLastModified(System.currentTimeMillis());
+      return new Entry(key, etag, lastModified);
+    } catch (IOException e) {
+      remove(key);
+      return null;
+    }
+  }
+
+  /**
+   * Replaces the {@code 304 Not Modified} response to a conditional request by the cached
+   * response.
+   *
+   * @return whether the cached response could be restored, {@code false} if the entry was evicted
+   *     in the meantime
+   */
+  boolean restore(Entry e, HttpResponse r) {
+    InputStream in;
+    try {
+      in = openBody(new File(dir, e.key));
+    } catch (IOException err) {
+      remove(e.key);
+      return false;
+    }
+    CloseableHttpResponse response = r.response;
+    response.setStatusCode(HttpStatus.SC_OK);
+    response.setEntity(new InputStreamEntity(in));
+    return true;
+  }
+
+  /**
+   * Stores the given response if it has validators.
+   *
+   * <p>The response body is written to the cache and the response is changed to read the body from
+   * the cache.
+   */
+  void store(String key, HttpResponse r) throws IOException {
+    String etag = r.getHeader(HttpHeaders.ETAG);
+    String lastModified = r.getHeader(HttpHeaders.LAST_MODIFIED);
+    HttpEntity entity = r.response.getEntity();
+    if ((etag == null && lastModified == null) || entity == null) {
+      return;
+    }
+
+    dir.mkdirs();
+    Path tmp = Files.createTempFile(dir.toPath(), key, ".tmp");
+    File f = new File(dir, key);
+    InputStream in;
+    try {
+      try (OutputStream out = Files.newOutputStream(tmp)) {
+        out.write((Strings.nullToEmpty(etag) + '\n').getBytes(UTF_8));
+        out.write((Strings.nullToEmpty(lastModified) + '\n').getBytes(UTF_8));
+        entity.writeTo(out);
+      }
+      Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      in = openBody(f);
+    } finally {
+      Files.deleteIfExists(tmp);
+    }
+    r.response.setEntity(new InputStreamEntity(in));
+    add(key, f.length());
+  }
+
+  private synchronized boolean use(String key) {
+    return entries().get(key) != null;
+  }
+
+  private synchronized void add(String key, long length) {
+    Long old = entries().put(key, length);
+    size += length - (old != null ? old : 0);
+    for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        size > maxSize && it.hasNext(); ) {
+      Map.Entry<String, Long> eldest = it.next();
+      it.remove();
+      size -= eldest.getValue();
+      delete(eldest.getKey());
+    }
+  }
+
+  private synchronized void remove(String key) {
+    Long length = entries().remove(key);
+    if (length != null) {
+      size -= length;
+    }
+    delete(key);
+  }
+
+  private void delete(String key) {
+    File f = new File(dir, key);
+    if (!f.delete() && f.exists()) {
+      log.warn(String.format("Cannot delete cached response %s", f));
+    }
+  }
+
+  /** Returns the entries, they are read from disk when the cache is first used. */
+  private LinkedHashMap<String, Long> entries() {
+    if (entries == null) {
+      entries = new LinkedHashMap<>(16, 0.75f, true);
+      File[] files = dir.listFiles();
+      if (files != null) {
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File f : files) {
+          if (f.getName().endsWith(".tmp")) {
+            // left behind by an interrupted write
+            f.delete();
+          } else {
+            entries.put(f.getName(), f.length());
+            size += f.length();
+          }
+        }
+      }
+    }
+    return entries;
+  }
+
+  /** Opens the given entry and skips the validators. */
+  private static InputStream openBody(File f) throws IOException {
+    InputStream in = new FileInputStream(f);
+    try {
+      readLine(in);
+      readLine(in);
+      return in;
+    } catch (IOException e) {
+      in.close();
+      throw e;
+    }
+  }
+
+  private static String readLine(InputStream in) throws IOException {
+    ByteArrayOutputStream line = new ByteArrayOutputStream();
+    for (int b = in.read(); b != '\n'; b = in.read()) {
+      if (b == -1) {
+        throw new IOException("Truncated cache entry");
+      }
+      line.write(b);
+    }
+    return new String(line.toByteArray(), UTF_8);
+  }
+
+  /** The validators of a cached response. */
+  static class Entry {
+    final String key;
+    @Nullable final String etag;
+    @Nullable final String lastModified;
+
+    Entry(String key, @Nullable String etag, @Nullable String lastModified) {
+      this.key = key;
+      this.etag = etag;
+      this.lastModified = lastModified;
+    }
+  }
+}
@@ -20,17 +20,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
 import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
 
 public class RestResponse extends HttpResponse {
 
-  RestResponse(CloseableHttpResponse response) {
-    super(response);
+  RestResponse(CloseableHttpResponse response, HttpUriRequest request) {
+    super(response, request);
   }
 
   @Override
   public Reader getReader() throws IllegalStateException, IOException {
     if (reader == null && response.getEntity() != null) {
-      reader = new InputStreamReader(response.getEntity().getContent());
+      reader = new InputStreamReader(getContent());
       reader.skip(JSON_MAGIC.length);
     }
     return reader;
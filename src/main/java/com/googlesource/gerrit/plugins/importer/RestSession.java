@@ -16,31 +16,259 @@ package com.googlesource.gerrit.plugins.importer;
 
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import com.google.gerrit.common.Nullable;
 import com.google.gerrit.extensions.restapi.RawInput;
 import com.google.gerrit.server.OutputFormat;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import javax.net.ssl.SSLException;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ConnectTimeoutException;
 import org.apache.http.entity.BufferedHttpEntity;
 import org.apache.http.entity.InputStreamEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.message.BasicHeader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class RestSession extends HttpSession {
+  private static final Logger log = LoggerFactory.getLogger(RestSession.class);
+
+  private static final long INITIAL_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(1);
+  private static final long MAX_RETRY_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+
+  /**
+   * Endpoints whose responses grow with the resource: the inline comments of a change, the members
+   * of a group and the statistics of a repository.
+   */
+  private static final ImmutableSet<String> SIZE_DEPENDENT_ENDPOINTS =
+      ImmutableSet.of("/changes/*/comments", "/groups/*/detail", "/projects/*/statistics.git");
+
+  private final RequestThrottle throttle;
+  private final SourceMetrics metrics;
+  private final ResponseCache cache;
 
   public RestSession(String url, String user, String pass) {
     super(url, user, pass);
+    this.throttle = null;
+    this.metrics = null;
+    this.cache = null;
+  }
+
+  RestSession(
+      String url,
+      String user,
+      String pass,
+      ConnectionConfig connectionConfig,
+      @Nullable RequestThrottle throttle,
+      @Nullable SourceMetrics metrics,
+      @Nullable ResponseCache cache) {
+    super(url, user, pass, connectionConfig);
+    this.throttle = throttle;
+    this.metrics = metrics;
+    this.cache = cache;
   }
 
+  /**
+   * Sends a GET request.
+   *
+   * <p>If the response to the same request was cached, it is revalidated by a conditional request
+   * and returned from the cache if it is unchanged.
+   */
   @Override
   public RestResponse get(String endPoint) throws IOException {
-    HttpGet get = new HttpGet(url + "/a" + endPoint);
-    return new RestResponse(getClient().execute(get));
+    return get(endPoint, newRetries());
+  }
+
+  /** Returns a new retry budget, which starts now. */
+  Retries newRetries() {
+    return new Retries();
+  }
+
+  /**
+   * Sends a GET request, like {@link #get(String)}, whose attempts share the given retry budget.
+   */
+  RestResponse get(String endPoint, Retries retries) throws IOException {
+    if (cache == null) {
+      return send(endPoint, null, retries);
+    }
+    String key = ResponseCache.key(url, user, endPoint);
+    ResponseCache.Entry cached = cache.get(key);
+    RestResponse r = send(endPoint, cached, retries);
+    if (cached != null && r.getStatusCode() == HttpStatus.SC_NOT_MODIFIED) {
+      if (cache.restore(cached, r)) {
+        return r;
+      }
+      // evicted in the meantime
+      r.close();
+      r = send(endPoint, null, retries);
+    }
+    if (r.getStatusCode() == HttpStatus.SC_OK) {
+      try {
+        cache.store(key, r);
+      } catch (IOException | RuntimeException e) {
+        r.close();
+        throw e;
+      }
+    }
+    return r;
+  }
+
+  /**
+   * Sends a GET request, conditional on the validators of the given cached response.
+   *
+   * <p>GET requests are idempotent, hence they are retried if they fail with an error that is
+   * likely transient, like a {@code 502 Bad Gateway} response or a reset connection. The retries
+   * are delayed by an exponential backoff with random jitter, and they are stopped when the retry
+   * timeout of the source system is exceeded. Then the last response is returned or the last error
+   * is thrown.
+   */
+  private RestResponse send(
+      String endPoint, @Nullable ResponseCache.Entry cached, Retries retries) throws IOException {
+    for (; ; ) {
+      RestResponse r;
+      try {
+        HttpGet get = new HttpGet(url + "/a" + endPoint);
+        if (cached != null) {
+          if (cached.etag != null) {
+            get.addHeader(HttpHeaders.IF_NONE_MATCH, cached.etag);
+          }
+          if (cached.lastModified != null) {
+            get.addHeader(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+          }
+        }
+        r = execute(endPoint, get);
+      } catch (IOException e) {
+        if (!retries.awaitRetry(endPoint, e)) {
+          throw e;
+        }
+        continue;
+      }
+      if (!isRetryable(r.getStatusCode())) {
+        return r;
+      }
+      long delay = retries.nextDelay(r.getHeader("Retry-After"));
+      if (delay < 0) {
+        return r;
+      }
+      r.close();
+      retry(endPoint, "status " + r.getStatusCode(), delay);
+    }
+  }
+
+  /**
+   * The retry budget of a request: all attempts to complete the request, including the attempts to
+   * re-request the rest of a response that failed while it was read, must be done within the retry
+   * timeout of the source system.
+   */
+  class Retries {
+    private final long deadline = System.currentTimeMillis() + connectionConfig.retryTimeout;
+    private int attempt;
+
+    /**
+     * Waits before the next attempt after the given error.
+     *
+     * @return whether the request should be attempted again, false if the error is not transient or
+     *     the retry timeout would be exceeded
+     */
+    boolean awaitRetry(String endPoint, IOException e) throws InterruptedIOException {
+      if (!isRetryable(e)) {
+        return false;
+      }
+      long delay = nextDelay(null);
+      if (delay < 0) {
+        return false;
+      }
+      retry(endPoint, e.toString(), delay);
+      return true;
+    }
+
+    /** Returns the delay before the next attempt, -1 if the retry timeout would be exceeded. */
+    private long nextDelay(@Nullable String retryAfter) {
+      long delay = retryDelay(attempt++, retryAfter);
+      if (System.currentTimeMillis() + delay > deadline) {
+        retriesExhausted();
+        return -1;
+      }
+      return delay;
+    }
+  }
+
+  static boolean isRetryable(int statusCode) {
+    switch (statusCode) {
+      case RequestThrottle.SC_TOO_MANY_REQUESTS:
+      case HttpStatus.SC_BAD_GATEWAY:
+      case HttpStatus.SC_SERVICE_UNAVAILABLE:
+      case HttpStatus.SC_GATEWAY_TIMEOUT:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  static boolean isRetryable(IOException e) {
+    if (e instanceof InterruptedIOException) {
+      // timeouts are retried, but not interrupts
+      return e instanceof SocketTimeoutException || e instanceof ConnectTimeoutException;
+    }
+    // unknown hosts, TLS failures and protocol violations don't go away on retry
+    return !(e instanceof UnknownHostException
+        || e instanceof SSLException
+        || e instanceof ClientProtocolException);
+  }
+
+  /**
+   * Returns the time to wait before the next attempt: the exponential backoff with random jitter,
+   * unless the source system asks for a longer delay by a {@code Retry-After} header.
+   */
+  static long retryDelay(int attempt, @Nullable String retryAfter) {
+    long backoff = Math.min(MAX_RETRY_DELAY_MS, INITIAL_RETRY_DELAY_MS << Math.min(attempt, 16));
+    long delay = backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+    if (retryAfter != null) {
+      try {
+        delay = Math.max(delay, TimeUnit.SECONDS.toMillis(Long.parseLong(retryAfter.trim())));
+      } catch (NumberFormatException e) {
+        // an HTTP date, the backoff is used
+      }
+    }
+    return delay;
+  }
+
+  private void retry(String endPoint, String reason, long delay) throws InterruptedIOException {
+    log.warn(
+        String.format(
+            "Request %s to %s failed with %s, retrying in %d ms.", endPoint, url, reason, delay));
+    if (metrics != null) {
+      metrics.retried(getHost());
+    }
+    try {
+      Thread.sleep(delay);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting to retry a request");
+    }
+  }
+
+  private void retriesExhausted() {
+    if (metrics != null && connectionConfig.retryTimeout > 0) {
+      metrics.retriesExhausted(getHost());
+    }
   }
 
   public RestResponse put(String endPoint) throws IOException {
@@ -55,7 +283,7 @@ public class RestSession extends HttpSession {
           new StringEntity(
               OutputFormat.JSON_COMPACT.newGson().toJson(content), Charsets.UTF_8.name()));
     }
-    return new RestResponse(getClient().execute(put));
+    return execute(endPoint, put);
   }
 
   public RestResponse putRaw(String endPoint, RawInput stream) throws IOException {
@@ -65,7 +293,7 @@ public class RestSession extends HttpSession {
     put.setEntity(
         new BufferedHttpEntity(
             new InputStreamEntity(stream.getInputStream(), stream.getContentLength())));
-    return new RestResponse(getClient().execute(put));
+    return execute(endPoint, put);
   }
 
   public RestResponse post(String endPoint) throws IOException {
@@ -80,12 +308,69 @@ public class RestSession extends HttpSession {
           new StringEntity(
               OutputFormat.JSON_COMPACT.newGson().toJson(content), Charsets.UTF_8.name()));
     }
-    return new RestResponse(getClient().execute(post));
+    return execute(endPoint, post);
   }
 
   public RestResponse delete(String endPoint) throws IOException {
     HttpDelete delete = new HttpDelete(url + "/a" + endPoint);
-    return new RestResponse(getClient().execute(delete));
+    return execute(endPoint, delete);
+  }
+
+  private RestResponse execute(String endPoint, HttpUriRequest request) throws IOException {
+    if (throttle == null && metrics == null) {
+      return new RestResponse(getClient().execute(request), request);
+    }
+    String endpoint = endpoint(endPoint);
+    if (throttle != null) {
+      throttle.acquire();
+    }
+    long start = System.nanoTime();
+    int statusCode = 0;
+    try {
+      RestResponse r = new RestResponse(getClient().execute(request), request);
+      statusCode = r.getStatusCode();
+      return r;
+    } finally {
+      long latency = System.nanoTime() - start;
+      if (throttle != null) {
+        throttle.release(isLatencyComparable(endPoint) ? endpoint : null, statusCode, latency);
+      }
+      if (metrics != null) {
+        metrics.requestSent(getHost(), endpoint, statusCode, latency);
+      }
+    }
+  }
+
+  /** Records the size of a response body and the time that it took to read and decode it. */
+  void responseDecoded(String endPoint, RestResponse r, long decodeNanos) {
+    if (metrics != null) {
+      metrics.responseDecoded(getHost(), endpoint(endPoint), r.getBytesRead(), decodeNanos);
+    }
+  }
+
+  /**
+   * Returns the endpoint of a REST request: the path without the query, in which the IDs of the
+   * resources are replaced by {@code *}.
+   */
+  static String endpoint(String endPoint) {
+    int q = endPoint.indexOf('?');
+    String path = q >= 0 ? endPoint.substring(0, q) : endPoint;
+    StringBuilder endpoint = new StringBuilder();
+    int i = 0;
+    for (String segment : Splitter.on('/').omitEmptyStrings().split(path)) {
+      // REST paths alternate between collections and resource IDs
+      endpoint.append('/').append(i++ % 2 == 0 ? segment : "*");
+    }
+    return endpoint.length() > 0 ? endpoint.toString() : "/";
+  }
+
+  /**
+   * Whether the latency of a request is comparable to the latency of other requests to the same
+   * endpoint. The latency of a query depends on the number of results, e.g. on the page size of a
+   * change query, and the latency of some endpoints on the size of the resource.
+   */
+  static boolean isLatencyComparable(String endPoint) {
+    return endPoint.indexOf('?') < 0 && !SIZE_DEPENDENT_ENDPOINTS.contains(endpoint(endPoint));
   }
 
   public static RawInput newRawInput(final String content) {
@@ -29,22 +29,65 @@ public class ResumeProjectCommand extends SshCommand {
   @Option(
       name = "--user",
       aliases = {"-u"},
-      required = true,
+      required = false,
       metaVar = "NAME",
-      usage = "user on remote system")
+      usage = "user on remote system, not needed for a bundle")
   private String user;
 
   @Option(
       name = "--pass",
       aliases = {"-p"},
-      required = true,
+      required = false,
       metaVar = "-|PASS",
-      usage = "password of remote user")
+      usage = "password of remote user, not needed for a bundle")
   private String pass;
 
   @Option(name = "--force", usage = "Whether the resume should be done forcefully.")
   private boolean force;
 
+  @Option(
+      name = "--threads",
+      required = false,
+      metaVar = "N",
+      usage = "number of changes that are replayed concurrently (default 1)")
+  private int threads = 1;
+
+  @Option(
+      name = "--prefetch",
+      required = false,
+      metaVar = "N",
+      usage = "number of change pages that are fetched ahead of the replay (default 0)")
+  private int prefetch;
+
+  @Option(
+      name = "--min-page-size",
+      required = false,
+      metaVar = "N",
+      usage = "minimal number of changes that are fetched per request (default 10)")
+  private int minPageSize;
+
+  @Option(
+      name = "--max-page-size",
+      required = false,
+      metaVar = "N",
+      usage = "maximal number of changes that are fetched per request (default 500)")
+  private int maxPageSize;
+
+  @Option(
+      name = "--defer-indexing",
+      usage = "index the imported changes in batches instead of after each change")
+  private boolean deferIndexing;
+
+  @Option(
+      name = "--continue-on-error",
+      usage = "continue with the next change if replaying a change fails")
+  private boolean continueOnError;
+
+  @Option(
+      name = "--retry-failed",
+      usage = "only replay the changes that failed in the previous imports")
+  private boolean retryFailed;
+
   @Option(name = "--quiet", usage = "suppress progress messages")
   private boolean quiet;
 
@@ -70,9 +113,17 @@ public class ResumeProjectCommand extends SshCommand {
       input.user = user;
       input.pass = PasswordUtil.readPassword(in, pass);
       input.force = force;
+      input.threads = threads;
+      input.prefetch = prefetch;
+      input.minPageSize = minPageSize;
+      input.maxPageSize = maxPageSize;
+      input.deferIndexing = deferIndexing;
+      input.continueOnError = continueOnError;
+      input.retryFailed = retryFailed;
       ResumeImportStatistic stats = resume.apply(rsrc, input);
       stdout.print("Created Changes: " + stats.numChangesCreated + "\n");
       stdout.print("Updated Changes: " + stats.numChangesUpdated + "\n");
+      stdout.print("Failed Changes: " + stats.numChangesFailed + "\n");
     } catch (RestApiException e) {
       throw die(e.getMessage());
     }
@@ -51,8 +51,19 @@ public class ResumeProjectImport implements RestModifyView<ImportProjectResource
     public String user;
     public String pass;
     public boolean force;
-
-    private void validateResumeImport() throws BadRequestException {
+    public int threads;
+    public int prefetch;
+    public boolean deferIndexing;
+    public boolean continueOnError;
+    public boolean retryFailed;
+    public int minPageSize;
+    public int maxPageSize;
+
+    private void validateResumeImport(String from) throws BadRequestException {
+      if (BundleApi.isBundle(from)) {
+        // a bundle is read without credentials
+        return;
+      }
       if (Strings.isNullOrEmpty(user)) {
         throw new BadRequestException("user is required");
       }
@@ -101,14 +112,16 @@ public class ResumeProjectImport implements RestModifyView<ImportProjectResource
     if (copy) {
       input.validateResumeCopy();
     } else {
-      input.validateResumeImport();
+      input.validateResumeImport(ImportJson.parse(rsrc.getImportStatus()).from);
     }
 
     return importProjectFactory
         .create(rsrc.getName())
         .setCopy(copy)
         .setErr(err)
-        .resume(input.user, input.pass, input.force, rsrc.getImportStatus());
+        .setContinueOnError(input.continueOnError)
+        .setRetryFailed(input.retryFailed)
+        .resume(input, rsrc.getImportStatus());
   }
 
   public static class OnProjects
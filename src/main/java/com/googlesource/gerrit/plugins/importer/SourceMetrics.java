@@ -0,0 +1,134 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.metrics.Counter1;
+import com.google.gerrit.metrics.Counter2;
+import com.google.gerrit.metrics.Description;
+import com.google.gerrit.metrics.Description.Units;
+import com.google.gerrit.metrics.Field;
+import com.google.gerrit.metrics.Histogram2;
+import com.google.gerrit.metrics.MetricMaker;
+import com.google.gerrit.metrics.Timer2;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Metrics about the requests to the source systems.
+ *
+ * <p>The metrics of the requests are reported per endpoint, see {@link RestSession#endpoint}, so
+ * that slow queries can be told apart from slow comment or group lookups.
+ */
+@Singleton
+class SourceMetrics {
+  private final Counter1<String> retries;
+  private final Counter1<String> retriesExhausted;
+  private final Counter2<String, String> requests;
+  private final Counter2<String, String> errors;
+  private final Timer2<String, String> latency;
+  private final Timer2<String, String> decodeTime;
+  private final Histogram2<String, String> responseBytes;
+
+  @Inject
+  SourceMetrics(MetricMaker metrics) {
+    Field<String> host = Field.ofString("host");
+    Field<String> endpoint = Field.ofString("endpoint");
+    retries =
+        metrics.newCounter(
+            "source/retry_count",
+            new Description("Requests to a source host that were retried")
+                .setRate()
+                .setUnit("retries"),
+            host);
+    retriesExhausted =
+        metrics.newCounter(
+            "source/retry_exhausted_count",
+            new Description("Requests to a source host that failed after all retries")
+                .setRate()
+                .setUnit("requests"),
+            host);
+    requests =
+        metrics.newCounter(
+            "source/request_count",
+            new Description("Requests to an endpoint of a source host")
+                .setRate()
+                .setUnit("requests"),
+            host,
+            endpoint);
+    errors =
+        metrics.newCounter(
+            "source/error_count",
+            new Description(
+                    "Requests to an endpoint of a source host that failed or got an error response")
+                .setRate()
+                .setUnit("errors"),
+            host,
+            endpoint);
+    latency =
+        metrics.newTimer(
+            "source/request_latency",
+            new Description(
+                    "Time until the response headers of an endpoint of a source host were received")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            host,
+            endpoint);
+    decodeTime =
+        metrics.newTimer(
+            "source/response_decode_latency",
+            new Description("Time to read and decode the response body of an endpoint")
+                .setCumulative()
+                .setUnit(Units.MILLISECONDS),
+            host,
+            endpoint);
+    responseBytes =
+        metrics.newHistogram(
+            "source/response_bytes",
+            new Description("Size of the decoded response body of an endpoint")
+                .setCumulative()
+                .setUnit(Units.BYTES),
+            host,
+            endpoint);
+  }
+
+  /**
+   * Records a request that was sent to the source system.
+   *
+   * @param statusCode status code of the response, 0 if no response was received
+   * @param latencyNanos time until the response headers were received
+   */
+  void requestSent(String host, String endpoint, int statusCode, long latencyNanos) {
+    requests.increment(host, endpoint);
+    latency.record(host, endpoint, latencyNanos, TimeUnit.NANOSECONDS);
+    if (statusCode == 0 || statusCode >= 400) {
+      errors.increment(host, endpoint);
+    }
+  }
+
+  /** Records the size of a response body and the time that it took to read and decode it. */
+  void responseDecoded(String host, String endpoint, long bytes, long decodeNanos) {
+    responseBytes.record(host, endpoint, bytes);
+    decodeTime.record(host, endpoint, decodeNanos, TimeUnit.NANOSECONDS);
+  }
+
+  void retried(String host) {
+    retries.increment(host);
+  }
+
+  void retriesExhausted(String host) {
+    retriesExhausted.increment(host);
+  }
+}
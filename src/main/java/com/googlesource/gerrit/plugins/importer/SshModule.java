@@ -20,6 +20,8 @@ class SshModule extends PluginCommandModule {
   @Override
   protected void configureCommands() {
     command(ProjectCommand.class);
+    command(EstimateProjectCommand.class);
+    command(ExportProjectCommand.class);
     command(ListProjectImportsCommand.class);
     command(ResumeProjectCommand.class);
     command(CopyProjectCommand.class);
@@ -0,0 +1,134 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gwtorm.server.OrmException;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+
+/**
+ * Fetches the details only for those changes of a change listing that are new or were updated in
+ * the source system since they were imported.
+ *
+ * <p>The listing is expected to provide the changes without details. The changes are returned in
+ * listing order: the listed change if it is unchanged, the detailed change otherwise. The details
+ * of the stale changes are fetched in batches of {@link ChangeBatchFetcher#BATCH_SIZE} changes per
+ * request. While the changes of a batch are returned, the details of the next batch are already
+ * fetched. A stale change that was deleted in the source system after it was listed is returned as
+ * listed, without revisions.
+ */
+class StaleChangeFetcher implements ChangeStream {
+  /** Maximal number of listed changes that are held in memory at a time. */
+  private static final int MAX_WINDOW = 1000;
+
+  /** Listed changes whose stale changes are fetched in one request. */
+  private static class Batch {
+    final Deque<ChangeInfo> listed = new ArrayDeque<>();
+    CompletableFuture<List<ChangeInfo>> details;
+    Map<Integer, ChangeInfo> detailsByNumber;
+  }
+
+  private final AsyncGerritApi api;
+  private final ChangeStream listing;
+  private final Predicate<ChangeInfo> isUnchanged;
+  private final Deque<Batch> batches = new ArrayDeque<>();
+  private boolean listed;
+
+  StaleChangeFetcher(AsyncGerritApi api, ChangeStream listing, Predicate<ChangeInfo> isUnchanged) {
+    this.api = api;
+    this.listing = listing;
+    this.isUnchanged = isUnchanged;
+  }
+
+  @Override
+  public ChangeInfo next() throws BadRequestException, IOException {
+    // the current batch and the next one
+    while (batches.size() < 2 && !listed) {
+      list();
+    }
+    Batch batch = batches.peek();
+    if (batch == null) {
+      return null;
+    }
+    ChangeInfo c = batch.listed.poll();
+    if (batch.listed.isEmpty()) {
+      batches.poll();
+    }
+    if (batch.details == null) {
+      return c;
+    }
+    if (batch.detailsByNumber == null) {
+      batch.detailsByNumber = new HashMap<>();
+      for (ChangeInfo detailed : await(batch.details)) {
+        batch.detailsByNumber.put(detailed._number, detailed);
+      }
+    }
+    ChangeInfo detailed = batch.detailsByNumber.remove(c._number);
+    return detailed != null ? detailed : c;
+  }
+
+  /** Lists the changes of the next batch and requests the details of its stale changes. */
+  private void list() throws BadRequestException, IOException {
+    Batch batch = new Batch();
+    List<Integer> stale = new ArrayList<>();
+    while (stale.size() < ChangeBatchFetcher.BATCH_SIZE && batch.listed.size() < MAX_WINDOW / 2) {
+      ChangeInfo c = listing.next();
+      if (c == null) {
+        listed = true;
+        break;
+      }
+      batch.listed.add(c);
+      if (!isUnchanged.test(c)) {
+        stale.add(c._number);
+      }
+    }
+    if (!stale.isEmpty()) {
+      batch.details = api.getChanges(stale);
+    }
+    if (!batch.listed.isEmpty()) {
+      batches.add(batch);
+    }
+  }
+
+  private static List<ChangeInfo> await(CompletableFuture<List<ChangeInfo>> details)
+      throws BadRequestException, IOException {
+    try {
+      return AsyncGerritApi.await(details);
+    } catch (OrmException e) {
+      // the changes are not read from the database of the target system
+      throw new IOException(e);
+    }
+  }
+
+  @Override
+  public long getBytesRead() {
+    return listing.getBytesRead();
+  }
+
+  @Override
+  public void close() throws IOException {
+    listing.close();
+  }
+}
@@ -0,0 +1,116 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class AdaptivePageSizeTest {
+  private static final long MB = 1024 * 1024;
+
+  @Rule public ExpectedException exception = ExpectedException.none();
+
+  @Test
+  public void initialSizeIsClampedToBounds() {
+    assertThat(new AdaptivePageSize(10, 500).get()).isEqualTo(100);
+    assertThat(new AdaptivePageSize(1, 50).get()).isEqualTo(50);
+    assertThat(new AdaptivePageSize(200, 500).get()).isEqualTo(200);
+  }
+
+  @Test
+  public void invalidBoundsAreRejected() {
+    exception.expect(IllegalArgumentException.class);
+    new AdaptivePageSize(20, 10);
+  }
+
+  @Test
+  public void nonPositiveMinIsRejected() {
+    exception.expect(IllegalArgumentException.class);
+    new AdaptivePageSize(0, 10);
+  }
+
+  @Test
+  public void smallChangesAtMostDoubleThePageSize() {
+    AdaptivePageSize pageSize = new AdaptivePageSize(10, 500);
+    pageSize.update(100, MB, 10, 10);
+    assertThat(pageSize.get()).isEqualTo(200);
+    pageSize.update(200, 2 * MB, 10, 20);
+    assertThat(pageSize.get()).isEqualTo(400);
+    pageSize.update(400, 4 * MB, 10, 40);
+    assertThat(pageSize.get()).isEqualTo(500);
+  }
+
+  @Test
+  public void hugeChangesAtMostHalveThePageSize() {
+    AdaptivePageSize pageSize = new AdaptivePageSize(10, 500);
+    pageSize.update(100, 1024 * MB, 10, 10);
+    assertThat(pageSize.get()).isEqualTo(50);
+    pageSize.update(50, 512 * MB, 10, 10);
+    assertThat(pageSize.get()).isEqualTo(25);
+    pageSize.update(25, 256 * MB, 10, 10);
+    assertThat(pageSize.get()).isEqualTo(12);
+    pageSize.update(12, 128 * MB, 10, 10);
+    assertThat(pageSize.get()).isEqualTo(10);
+  }
+
+  @Test
+  public void pageSizeFollowsTargetBytes() {
+    AdaptivePageSize pageSize = new AdaptivePageSize(10, 500);
+    // 128 KiB per change, 128 changes fit into 16 MiB
+    pageSize.update(100, 100 * MB / 8, 10, 10);
+    assertThat(pageSize.get()).isEqualTo(128);
+  }
+
+  @Test
+  public void slowDecodingShrinksThePage() {
+    AdaptivePageSize pageSize = new AdaptivePageSize(10, 500);
+    // the target decode time is 4 times the latency, 4 seconds
+    pageSize.update(100, 0, 1000, 6000);
+    assertThat(pageSize.get()).isEqualTo(66);
+  }
+
+  @Test
+  public void targetDecodeTimeIsBounded() {
+    AdaptivePageSize pageSize = new AdaptivePageSize(10, 500);
+    // a low latency still allows a decode time of 1 second
+    pageSize.update(100, 0, 1, 1250);
+    assertThat(pageSize.get()).isEqualTo(80);
+
+    pageSize = new AdaptivePageSize(10, 500);
+    // a high latency allows at most a decode time of 10 seconds
+    pageSize.update(100, 0, 60000, 12500);
+    assertThat(pageSize.get()).isEqualTo(80);
+  }
+
+  @Test
+  public void emptyPageKeepsThePageSize() {
+    AdaptivePageSize pageSize = new AdaptivePageSize(10, 500);
+    pageSize.update(0, 0, 10, 0);
+    assertThat(pageSize.get()).isEqualTo(100);
+  }
+
+  @Test
+  public void pageSizesAreReported() {
+    AdaptivePageSize pageSize = new AdaptivePageSize(10, 500);
+    assertThat(pageSize.toString()).isEqualTo("no pages");
+    pageSize.update(100, MB, 10, 10);
+    assertThat(pageSize.toString()).isEqualTo("1 pages of 100 changes");
+    pageSize.update(200, MB, 10, 10);
+    assertThat(pageSize.toString()).isEqualTo("2 pages of 100-200 changes");
+  }
+}
@@ -0,0 +1,172 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.google.gson.Gson;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+import org.junit.rules.TemporaryFolder;
+
+public class BundleApiTest {
+  private static final String PROJECT = "foo";
+  private static final long T1 = 1500000001000L;
+  private static final long T2 = 1500000002000L;
+  private static final long T3 = 1500000003000L;
+
+  @Rule public ExpectedException exception = ExpectedException.none();
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void changesAreStreamedInIndexOrder() throws Exception {
+    try (BundleApi api = bundle(4, T3, 3, T2, 2, T2, 1, T1)) {
+      assertThat(numbers(api.streamChanges(PROJECT, ChangePageKey.FIRST, 0)))
+          .containsExactly(4, 3, 2, 1)
+          .inOrder();
+    }
+  }
+
+  @Test
+  public void pageEndsAtLimit() throws Exception {
+    try (BundleApi api = bundle(4, T3, 3, T2, 2, T2, 1, T1)) {
+      List<ChangeInfo> page = changes(api.streamChanges(PROJECT, ChangePageKey.FIRST, 2));
+      assertThat(page.size()).isEqualTo(2);
+      assertThat(page.get(0)._moreChanges).isNull();
+      assertThat(page.get(1)._moreChanges).isTrue();
+    }
+  }
+
+  @Test
+  public void lastPageHasNoMoreChanges() throws Exception {
+    try (BundleApi api = bundle(2, T2, 1, T1)) {
+      List<ChangeInfo> page = changes(api.streamChanges(PROJECT, ChangePageKey.FIRST, 2));
+      assertThat(page.get(1)._moreChanges).isNull();
+    }
+  }
+
+  @Test
+  public void pageStartsAfterTheChangesWithTheSameTimestampThatWereReturned() throws Exception {
+    try (BundleApi api = bundle(4, T3, 3, T2, 2, T2, 1, T1)) {
+      ChangePageKey key = new ChangePageKey(null, new Timestamp(T2), 1);
+      assertThat(numbers(api.streamChanges(PROJECT, key, 0))).containsExactly(2, 1).inOrder();
+    }
+  }
+
+  @Test
+  public void pageStartsAtTheFirstChangeUpdatedAtOrBeforeTheKey() throws Exception {
+    try (BundleApi api = bundle(4, T3, 3, T2, 2, T2, 1, T1)) {
+      ChangePageKey key = new ChangePageKey(null, new Timestamp(T2 + 500), 0);
+      assertThat(numbers(api.streamChanges(PROJECT, key, 0))).containsExactly(3, 2, 1).inOrder();
+    }
+  }
+
+  @Test
+  public void sinceIncludesTheChangesUpdatedAtThatTime() throws Exception {
+    try (BundleApi api = bundle(4, T3, 3, T2, 2, T2, 1, T1)) {
+      ChangePageKey key = ChangePageKey.since(new Timestamp(T2));
+      assertThat(numbers(api.streamChanges(PROJECT, key, 0))).containsExactly(4, 3, 2).inOrder();
+    }
+  }
+
+  @Test
+  public void keyAfterLastChangeIsEmpty() throws Exception {
+    try (BundleApi api = bundle(2, T2, 1, T1)) {
+      ChangePageKey key = new ChangePageKey(null, new Timestamp(T1), 1);
+      assertThat(numbers(api.streamChanges(PROJECT, key, 0))).isEmpty();
+    }
+  }
+
+  @Test
+  public void emptyIndex() throws Exception {
+    try (BundleApi api = bundle()) {
+      assertThat(numbers(api.streamChanges(PROJECT, ChangePageKey.FIRST, 10))).isEmpty();
+    }
+  }
+
+  @Test
+  public void changesAreFetchedByNumber() throws Exception {
+    try (BundleApi api = bundle(3, T3, 2, T2, 1, T1)) {
+      assertThat(numbers(api.getChanges(Arrays.asList(1, 5, 3)))).containsExactly(1, 3).inOrder();
+    }
+  }
+
+  @Test
+  public void otherProjectIsRejected() throws Exception {
+    try (BundleApi api = bundle(1, T1)) {
+      exception.expect(BadRequestException.class);
+      api.streamChanges("bar", ChangePageKey.FIRST, 0);
+    }
+  }
+
+  /** Writes a bundle with the given pairs of change number and last update timestamp. */
+  private BundleApi bundle(long... changes) throws Exception {
+    File file = new File(tmp.getRoot(), "bundle.zip");
+    Gson gson = BundleApi.newGson();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(file))) {
+      BundleApi.Manifest manifest = new BundleApi.Manifest();
+      manifest.name = PROJECT;
+      manifest.version = "2.15";
+      write(zip, BundleApi.MANIFEST, gson.toJson(manifest));
+      StringBuilder index = new StringBuilder();
+      for (int i = 0; i < changes.length; i += 2) {
+        ChangeInfo c = new ChangeInfo();
+        c._number = (int) changes[i];
+        c.updated = new Timestamp(changes[i + 1]);
+        write(zip, BundleApi.changeEntry(c._number), gson.toJson(c));
+        index.append(c._number).append(' ').append(c.updated.getTime()).append('\n');
+      }
+      write(zip, BundleApi.CHANGE_INDEX, index.toString());
+    }
+    return new BundleApi(file);
+  }
+
+  private static void write(ZipOutputStream zip, String name, String content) throws Exception {
+    zip.putNextEntry(new ZipEntry(name));
+    zip.write(content.getBytes(UTF_8));
+    zip.closeEntry();
+  }
+
+  private static List<ChangeInfo> changes(ChangeStream changes) throws Exception {
+    List<ChangeInfo> result = new ArrayList<>();
+    try (ChangeStream s = changes) {
+      for (ChangeInfo c = s.next(); c != null; c = s.next()) {
+        result.add(c);
+      }
+    }
+    return result;
+  }
+
+  private static List<Integer> numbers(ChangeStream changes) throws Exception {
+    List<Integer> result = new ArrayList<>();
+    for (ChangeInfo c : changes(changes)) {
+      result.add(c._number);
+    }
+    return result;
+  }
+}
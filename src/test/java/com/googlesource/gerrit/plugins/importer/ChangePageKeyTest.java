@@ -0,0 +1,83 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.extensions.common.ChangeInfo;
+import java.sql.Timestamp;
+import org.junit.Test;
+
+public class ChangePageKeyTest {
+  @Test
+  public void firstPageQueriesAllChanges() {
+    assertThat(ChangePageKey.FIRST.toQuery("foo")).isEqualTo("project:foo");
+    assertThat(ChangePageKey.since(null)).isSameAs(ChangePageKey.FIRST);
+  }
+
+  @Test
+  public void sinceIsQueriedInUtc() {
+    ChangePageKey key = ChangePageKey.since(new Timestamp(1000));
+    assertThat(key.toQuery("foo"))
+        .isEqualTo("project:foo after:\"1970-01-01 00:00:01.000 +0000\"");
+  }
+
+  @Test
+  public void afterChangeStartsBeforeItsUpdate() {
+    ChangePageKey key = ChangePageKey.FIRST.after(change(5000));
+    assertThat(key.since).isNull();
+    assertThat(key.before).isEqualTo(new Timestamp(5000));
+    assertThat(key.skip).isEqualTo(1);
+    assertThat(key.toQuery("foo"))
+        .isEqualTo("project:foo before:\"1970-01-01 00:00:05.000 +0000\"");
+  }
+
+  @Test
+  public void changesWithSameUpdateAreSkipped() {
+    // before: is inclusive, hence the changes that were already returned
+    // with the same timestamp must be skipped
+    ChangePageKey key = ChangePageKey.FIRST.after(change(5000)).after(change(5000));
+    assertThat(key.before).isEqualTo(new Timestamp(5000));
+    assertThat(key.skip).isEqualTo(2);
+
+    key = key.after(change(5000));
+    assertThat(key.skip).isEqualTo(3);
+  }
+
+  @Test
+  public void olderChangeResetsSkip() {
+    ChangePageKey key =
+        ChangePageKey.FIRST.after(change(5000)).after(change(5000)).after(change(4000));
+    assertThat(key.before).isEqualTo(new Timestamp(4000));
+    assertThat(key.skip).isEqualTo(1);
+  }
+
+  @Test
+  public void afterKeepsSince() {
+    Timestamp since = new Timestamp(1000);
+    ChangePageKey key = ChangePageKey.since(since).after(change(5000)).after(change(4000));
+    assertThat(key.since).isEqualTo(since);
+    assertThat(key.toQuery("foo"))
+        .isEqualTo(
+            "project:foo after:\"1970-01-01 00:00:01.000 +0000\""
+                + " before:\"1970-01-01 00:00:04.000 +0000\"");
+  }
+
+  private static ChangeInfo change(long updated) {
+    ChangeInfo c = new ChangeInfo();
+    c.updated = new Timestamp(updated);
+    return c;
+  }
+}
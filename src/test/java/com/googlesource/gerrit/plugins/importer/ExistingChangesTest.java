@@ -0,0 +1,81 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.reviewdb.client.Branch;
+import com.google.gerrit.reviewdb.client.Change;
+import com.google.gerrit.reviewdb.client.Project;
+import java.sql.Timestamp;
+import org.junit.Test;
+
+public class ExistingChangesTest {
+  private static final Project.NameKey PROJECT = new Project.NameKey("foo");
+  private static final Branch.NameKey MASTER = new Branch.NameKey(PROJECT, "refs/heads/master");
+  private static final Branch.NameKey STABLE = new Branch.NameKey(PROJECT, "refs/heads/stable");
+  private static final Change.Key KEY = new Change.Key("I0123456789abcdef0123456789abcdef01234567");
+  private static final Change.Id ID = new Change.Id(1);
+
+  @Test
+  public void unknownChangeIsNotFound() {
+    ExistingChanges changes = new ExistingChanges();
+    assertThat(changes.find(MASTER, KEY)).isNull();
+    assertThat(changes.isUnchanged(MASTER, KEY, new Timestamp(1000))).isFalse();
+  }
+
+  @Test
+  public void changeIsFoundByBranchAndChangeId() {
+    ExistingChanges changes = new ExistingChanges();
+    changes.add(MASTER, KEY, ID, new Timestamp(1000));
+    assertThat(changes.find(MASTER, KEY)).isEqualTo(ID);
+    assertThat(changes.find(STABLE, KEY)).isNull();
+  }
+
+  @Test
+  public void changeIsUnchangedUntilItIsUpdated() {
+    ExistingChanges changes = new ExistingChanges();
+    changes.add(MASTER, KEY, ID, new Timestamp(1000));
+    assertThat(changes.isUnchanged(MASTER, KEY, new Timestamp(1000))).isTrue();
+    assertThat(changes.isUnchanged(MASTER, KEY, new Timestamp(2000))).isFalse();
+  }
+
+  @Test
+  public void changeReplayedByFirstListingIsFoundBySecondListing() {
+    // a resume lists the changes after the checkpoint first and then the
+    // changes that were updated since the interrupted import started
+    ExistingChanges changes = new ExistingChanges();
+
+    // the first listing creates the change
+    assertThat(changes.find(MASTER, KEY)).isNull();
+    changes.add(MASTER, KEY, ID, new Timestamp(1000));
+
+    // the second listing lists it once more, unchanged, within the overlap
+    assertThat(changes.isUnchanged(MASTER, KEY, new Timestamp(1000))).isTrue();
+
+    // or updated in the source system while the first listing ran, then
+    // the created change is updated instead of creating another one
+    assertThat(changes.isUnchanged(MASTER, KEY, new Timestamp(2000))).isFalse();
+    assertThat(changes.find(MASTER, KEY)).isEqualTo(ID);
+  }
+
+  @Test
+  public void updateOfReplayedChangeIsRecorded() {
+    ExistingChanges changes = new ExistingChanges();
+    changes.add(MASTER, KEY, ID, new Timestamp(1000));
+    changes.add(MASTER, KEY, ID, new Timestamp(2000));
+    assertThat(changes.isUnchanged(MASTER, KEY, new Timestamp(2000))).isTrue();
+  }
+}
@@ -0,0 +1,59 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.extensions.common.CommentInfo;
+import java.util.Arrays;
+import java.util.Collections;
+import org.junit.Test;
+
+public class GerritApiTest {
+  @Test
+  public void commentsAreGroupedByPatchSet() {
+    CommentInfo a = comment(1);
+    CommentInfo b = comment(2);
+    CommentInfo c = comment(1);
+    ListMultimap<Integer, CommentInfo> byPatchSet =
+        GerritApi.byPatchSet(
+            ImmutableMap.of("a.txt", Arrays.asList(a, b), "b.txt", Arrays.asList(c)));
+    assertThat(byPatchSet.keySet()).containsExactly(1, 2);
+    assertThat(byPatchSet.get(1)).containsExactly(a, c).inOrder();
+    assertThat(byPatchSet.get(2)).containsExactly(b);
+  }
+
+  @Test
+  public void pathIsSetFromFile() {
+    CommentInfo a = comment(1);
+    CommentInfo b = comment(1);
+    GerritApi.byPatchSet(ImmutableMap.of("a.txt", Arrays.asList(a), "dir/b.txt", Arrays.asList(b)));
+    assertThat(a.path).isEqualTo("a.txt");
+    assertThat(b.path).isEqualTo("dir/b.txt");
+  }
+
+  @Test
+  public void noComments() {
+    assertThat(GerritApi.byPatchSet(Collections.emptyMap()).isEmpty()).isTrue();
+  }
+
+  private static CommentInfo comment(int patchSet) {
+    CommentInfo c = new CommentInfo();
+    c.patchSet = patchSet;
+    return c;
+  }
+}
@@ -0,0 +1,194 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import org.apache.http.HttpStatus;
+import org.junit.Test;
+
+public class RequestThrottleTest {
+  private static final String ENDPOINT = "/projects/*";
+  private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+  @Test
+  public void limitStartsAtOneRequest() {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(1);
+    assertThat(throttle.getRequestsInFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void requestsInFlightAreCounted() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    throttle.acquire();
+    assertThat(throttle.getRequestsInFlight()).isEqualTo(1);
+    throttle.release(ENDPOINT, HttpStatus.SC_OK, MS);
+    assertThat(throttle.getRequestsInFlight()).isEqualTo(0);
+  }
+
+  @Test
+  public void limitGrowsByOneRequestPerRound() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 1);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+    succeed(throttle, 2);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+    succeed(throttle, 1);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void limitIsBoundedByMaximum() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(3, 0);
+    succeed(throttle, 100);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(3);
+  }
+
+  @Test
+  public void overloadHalvesLimit() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 7);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(4);
+
+    throttle.acquire();
+    throttle.release(ENDPOINT, HttpStatus.SC_SERVICE_UNAVAILABLE, 0);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+    assertThat(throttle.getBackoffs()).isEqualTo(1L);
+
+    throttle.acquire();
+    throttle.release(ENDPOINT, RequestThrottle.SC_TOO_MANY_REQUESTS, 0);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(1);
+    assertThat(throttle.getBackoffs()).isEqualTo(2L);
+  }
+
+  @Test
+  public void limitIsNotHalvedBelowOneRequest() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    for (int i = 0; i < 3; i++) {
+      throttle.acquire();
+      throttle.release(ENDPOINT, HttpStatus.SC_SERVICE_UNAVAILABLE, 0);
+    }
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(1);
+  }
+
+  @Test
+  public void concurrentOverloadHalvesLimitOnce() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 7);
+    throttle.acquire();
+    throttle.acquire();
+    // both requests were in flight when the source system was overloaded
+    throttle.release(ENDPOINT, HttpStatus.SC_SERVICE_UNAVAILABLE, TimeUnit.MINUTES.toNanos(1));
+    throttle.release(ENDPOINT, HttpStatus.SC_SERVICE_UNAVAILABLE, TimeUnit.MINUTES.toNanos(1));
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+    assertThat(throttle.getBackoffs()).isEqualTo(1L);
+  }
+
+  @Test
+  public void slowRequestHalvesLimit() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 7);
+    throttle.acquire();
+    throttle.release(ENDPOINT, HttpStatus.SC_OK, 3 * MS);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+  }
+
+  @Test
+  public void gatewayErrorHalvesLimit() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 7);
+
+    throttle.acquire();
+    throttle.release(ENDPOINT, HttpStatus.SC_BAD_GATEWAY, 0);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+
+    throttle.acquire();
+    throttle.release(ENDPOINT, HttpStatus.SC_GATEWAY_TIMEOUT, 0);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(1);
+  }
+
+  @Test
+  public void jitterKeepsLimit() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 7);
+    // a single fast request doesn't make the usual latency slower requests
+    // are compared to
+    throttle.acquire();
+    throttle.release(ENDPOINT, HttpStatus.SC_OK, MS / 10);
+    throttle.acquire();
+    throttle.release(ENDPOINT, HttpStatus.SC_OK, 3 * MS / 2);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(4);
+    assertThat(throttle.getBackoffs()).isEqualTo(0L);
+  }
+
+  @Test
+  public void latencyIsComparedAfterWarmUp() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 2);
+    throttle.acquire();
+    throttle.release(ENDPOINT, HttpStatus.SC_OK, 3 * MS);
+    assertThat(throttle.getBackoffs()).isEqualTo(0L);
+  }
+
+  @Test
+  public void latencyIsComparedPerEndpoint() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 7);
+    for (int i = 0; i < 7; i++) {
+      throttle.acquire();
+      throttle.release("/config/*/version", HttpStatus.SC_OK, 3 * MS);
+    }
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(5);
+    assertThat(throttle.getBackoffs()).isEqualTo(0L);
+  }
+
+  @Test
+  public void queryLatencyIsNotCompared() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    for (int i = 0; i < 7; i++) {
+      throttle.acquire();
+      throttle.release(null, HttpStatus.SC_OK, MS);
+    }
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(4);
+    throttle.acquire();
+    throttle.release(null, HttpStatus.SC_OK, 3 * MS);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(4);
+
+    throttle.acquire();
+    throttle.release(null, HttpStatus.SC_SERVICE_UNAVAILABLE, MS);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+  }
+
+  @Test
+  public void failedRequestHalvesLimit() throws Exception {
+    RequestThrottle throttle = new RequestThrottle(10, 0);
+    succeed(throttle, 7);
+    throttle.acquire();
+    // e.g. a socket timeout or a connection reset
+    throttle.release(ENDPOINT, 0, MS);
+    assertThat(throttle.getConcurrencyLimit()).isEqualTo(2);
+    assertThat(throttle.getRequestsInFlight()).isEqualTo(0);
+  }
+
+  /** Sends the given number of requests one after the other, each with a latency of 1 ms. */
+  private static void succeed(RequestThrottle throttle, int requests) throws Exception {
+    for (int i = 0; i < requests; i++) {
+      throttle.acquire();
+      throttle.release(ENDPOINT, HttpStatus.SC_OK, MS);
+    }
+  }
+}
@@ -0,0 +1,69 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.gerrit.reviewdb.client.Account;
+import java.lang.reflect.Proxy;
+import org.junit.Test;
+
+public class ResolvedAccountsTest {
+  private final ResolvedAccounts resolved = new ResolvedAccounts();
+
+  @Test
+  public void unresolvedUserIsNotFound() {
+    assertThat(resolved.get(api(), "jdoe")).isNull();
+  }
+
+  @Test
+  public void resolvedUserIsFound() {
+    GerritApi api = api();
+    resolved.put(api, "jdoe", new Account.Id(1));
+    resolved.put(api, "jroe", new Account.Id(2));
+    assertThat(resolved.get(api, "jdoe")).isEqualTo(new Account.Id(1));
+    assertThat(resolved.get(api, "jroe")).isEqualTo(new Account.Id(2));
+    assertThat(resolved.get(api, "jsmith")).isNull();
+  }
+
+  @Test
+  public void usersAreResolvedPerImport() {
+    GerritApi api = api();
+    GerritApi other = api();
+    resolved.put(api, "jdoe", new Account.Id(1));
+    resolved.put(other, "jdoe", new Account.Id(2));
+    assertThat(resolved.get(api, "jdoe")).isEqualTo(new Account.Id(1));
+    assertThat(resolved.get(other, "jdoe")).isEqualTo(new Account.Id(2));
+    assertThat(resolved.get(api(), "jdoe")).isNull();
+  }
+
+  /** Returns an API of a new import, only its identity is used. */
+  private static GerritApi api() {
+    return (GerritApi)
+        Proxy.newProxyInstance(
+            GerritApi.class.getClassLoader(),
+            new Class<?>[] {GerritApi.class},
+            (proxy, method, args) -> {
+              switch (method.getName()) {
+                case "equals":
+                  return proxy == args[0];
+                case "hashCode":
+                  return System.identityHashCode(proxy);
+                default:
+                  throw new UnsupportedOperationException(method.getName());
+              }
+            });
+  }
+}
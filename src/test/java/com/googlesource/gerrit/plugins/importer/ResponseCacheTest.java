@@ -0,0 +1,192 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+import static com.google.gerrit.httpd.restapi.RestApiServlet.JSON_MAGIC;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.base.Strings;
+import com.google.common.io.CharStreams;
+import com.sun.net.httpserver.HttpServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ResponseCacheTest {
+  private static final String A = "/projects/a";
+  private static final String B = "/projects/b";
+  private static final String C = "/projects/c";
+
+  /** Size of a cache entry: the ETag, an empty Last-Modified and the body with the JSON magic. */
+  private static final long ENTRY_SIZE = 4 + 1 + JSON_MAGIC.length + 100;
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  /** Response bodies by request path, a {@code null} body is sent without validators. */
+  private final Map<String, String> bodies = new HashMap<>();
+
+  /** The {@code If-None-Match} headers of the requests, empty for unconditional requests. */
+  private final List<String> conditions = new ArrayList<>();
+
+  private HttpServer server;
+  private String url;
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          String path = exchange.getRequestURI().getPath().substring("/a".length());
+          String condition = exchange.getRequestHeaders().getFirst("If-None-Match");
+          conditions.add(Strings.nullToEmpty(condition));
+          String body = bodies.get(path);
+          boolean validators = body != null;
+          if (body == null) {
+            body = Strings.repeat("x", 100);
+          }
+          String etag = etag(body);
+          if (validators) {
+            exchange.getResponseHeaders().add("ETag", etag);
+          }
+          if (validators && etag.equals(condition)) {
+            exchange.sendResponseHeaders(HttpStatus.SC_NOT_MODIFIED, -1);
+          } else {
+            byte[] content = body.getBytes(UTF_8);
+            exchange.sendResponseHeaders(HttpStatus.SC_OK, JSON_MAGIC.length + content.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+              out.write(JSON_MAGIC);
+              out.write(content);
+            }
+          }
+          exchange.close();
+        });
+    server.start();
+    url = "http://127.0.0.1:" + server.getAddress().getPort();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void unchangedResponseIsRestoredFromCache() throws Exception {
+    RestSession session = session(new ResponseCache(tmp.getRoot(), 10 * ENTRY_SIZE));
+    bodies.put(A, body('a'));
+    assertThat(get(session, A)).isEqualTo(body('a'));
+    assertThat(get(session, A)).isEqualTo(body('a'));
+    assertThat(conditions).containsExactly("", etag(body('a'))).inOrder();
+  }
+
+  @Test
+  public void changedResponseReplacesCachedResponse() throws Exception {
+    RestSession session = session(new ResponseCache(tmp.getRoot(), 10 * ENTRY_SIZE));
+    bodies.put(A, body('a'));
+    get(session, A);
+    bodies.put(A, body('b'));
+    assertThat(get(session, A)).isEqualTo(body('b'));
+    assertThat(get(session, A)).isEqualTo(body('b'));
+    assertThat(conditions)
+        .containsExactly("", etag(body('a')), etag(body('b')))
+        .inOrder();
+  }
+
+  @Test
+  public void responseWithoutValidatorsIsNotCached() throws Exception {
+    ResponseCache cache = new ResponseCache(tmp.getRoot(), 10 * ENTRY_SIZE);
+    RestSession session = session(cache);
+    get(session, A);
+    get(session, A);
+    assertThat(conditions).containsExactly("", "").inOrder();
+    assertThat(cache.get(key(A))).isNull();
+  }
+
+  @Test
+  public void leastRecentlyUsedEntryIsEvicted() throws Exception {
+    ResponseCache cache = new ResponseCache(tmp.getRoot(), 2 * ENTRY_SIZE);
+    RestSession session = session(cache);
+    bodies.put(A, body('a'));
+    bodies.put(B, body('b'));
+    bodies.put(C, body('c'));
+    get(session, A);
+    get(session, B);
+    // revalidating A makes B the least recently used entry
+    get(session, A);
+    get(session, C);
+    assertThat(cache.get(key(B))).isNull();
+    assertThat(cache.get(key(A))).isNotNull();
+    assertThat(cache.get(key(C))).isNotNull();
+  }
+
+  @Test
+  public void entriesAreRestoredFromDisk() throws Exception {
+    bodies.put(A, body('a'));
+    get(session(new ResponseCache(tmp.getRoot(), 10 * ENTRY_SIZE)), A);
+
+    // after a restart
+    RestSession session = session(new ResponseCache(tmp.getRoot(), 10 * ENTRY_SIZE));
+    assertThat(get(session, A)).isEqualTo(body('a'));
+    assertThat(conditions).containsExactly("", etag(body('a'))).inOrder();
+  }
+
+  @Test
+  public void missingEntryIsRequestedAgain() throws Exception {
+    RestSession session = session(new ResponseCache(tmp.getRoot(), 10 * ENTRY_SIZE));
+    bodies.put(A, body('a'));
+    get(session, A);
+    for (File f : tmp.getRoot().listFiles()) {
+      f.delete();
+    }
+    assertThat(get(session, A)).isEqualTo(body('a'));
+    assertThat(conditions).containsExactly("", "").inOrder();
+  }
+
+  private RestSession session(ResponseCache cache) {
+    return new RestSession(url, "user", "pass", ConnectionConfig.DEFAULT, null, null, cache);
+  }
+
+  private String key(String endPoint) {
+    return ResponseCache.key(url, "user", endPoint);
+  }
+
+  private static String get(RestSession session, String endPoint) throws IOException {
+    try (RestResponse r = session.get(endPoint)) {
+      assertThat(r.getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+      return CharStreams.toString(r.getReader());
+    }
+  }
+
+  private static String body(char c) {
+    return Strings.repeat(String.valueOf(c), 100);
+  }
+
+  private static String etag(String body) {
+    return "\"" + body.charAt(0) + "\"";
+  }
+}
@@ -0,0 +1,206 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLException;
+import org.apache.http.HttpStatus;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RestSessionTest {
+  private static final String ENDPOINT = "/projects/foo";
+
+  private final Deque<Integer> statusCodes = new ArrayDeque<>();
+  private final AtomicInteger requests = new AtomicInteger();
+  private HttpServer server;
+
+  @Before
+  public void startServer() throws IOException {
+    server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    server.createContext(
+        "/",
+        exchange -> {
+          requests.incrementAndGet();
+          Integer statusCode = statusCodes.size() > 1 ? statusCodes.poll() : statusCodes.peek();
+          exchange.sendResponseHeaders(statusCode, -1);
+          exchange.close();
+        });
+    server.start();
+  }
+
+  @After
+  public void stopServer() {
+    server.stop(0);
+  }
+
+  @Test
+  public void transientErrorIsRetried() throws Exception {
+    statusCodes.add(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    statusCodes.add(HttpStatus.SC_OK);
+    try (RestResponse r = session(TimeUnit.MINUTES.toMillis(1)).get(ENDPOINT)) {
+      assertThat(r.getStatusCode()).isEqualTo(HttpStatus.SC_OK);
+    }
+    assertThat(requests.get()).isEqualTo(2);
+  }
+
+  @Test
+  public void permanentErrorIsNotRetried() throws Exception {
+    statusCodes.add(HttpStatus.SC_NOT_FOUND);
+    try (RestResponse r = session(TimeUnit.MINUTES.toMillis(1)).get(ENDPOINT)) {
+      assertThat(r.getStatusCode()).isEqualTo(HttpStatus.SC_NOT_FOUND);
+    }
+    assertThat(requests.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void requestIsNotRetriedWithoutRetryTimeout() throws Exception {
+    statusCodes.add(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    try (RestResponse r = session(0).get(ENDPOINT)) {
+      assertThat(r.getStatusCode()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    }
+    assertThat(requests.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void retriesStopAtRetryTimeout() throws Exception {
+    statusCodes.add(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    try (RestResponse r = session(1500).get(ENDPOINT)) {
+      assertThat(r.getStatusCode()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    }
+    // the first retry is delayed by at most 1 s, the second by at least 1 s
+    assertThat(requests.get()).isGreaterThan(1);
+    assertThat(requests.get()).isAtMost(3);
+  }
+
+  @Test
+  public void attemptsShareTheRetryBudget() throws Exception {
+    statusCodes.add(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    statusCodes.add(HttpStatus.SC_OK);
+    RestSession session = session(3000);
+    RestSession.Retries retries = session.newRetries();
+    // an earlier attempt used up the budget, except less than the first
+    // retry delay
+    Thread.sleep(2600);
+    try (RestResponse r = session.get(ENDPOINT, retries)) {
+      assertThat(r.getStatusCode()).isEqualTo(HttpStatus.SC_SERVICE_UNAVAILABLE);
+    }
+    assertThat(requests.get()).isEqualTo(1);
+  }
+
+  @Test
+  public void overloadAndGatewayErrorsAreRetryable() {
+    assertThat(RestSession.isRetryable(RequestThrottle.SC_TOO_MANY_REQUESTS)).isTrue();
+    assertThat(RestSession.isRetryable(HttpStatus.SC_BAD_GATEWAY)).isTrue();
+    assertThat(RestSession.isRetryable(HttpStatus.SC_SERVICE_UNAVAILABLE)).isTrue();
+    assertThat(RestSession.isRetryable(HttpStatus.SC_GATEWAY_TIMEOUT)).isTrue();
+    assertThat(RestSession.isRetryable(HttpStatus.SC_INTERNAL_SERVER_ERROR)).isFalse();
+    assertThat(RestSession.isRetryable(HttpStatus.SC_NOT_FOUND)).isFalse();
+    assertThat(RestSession.isRetryable(HttpStatus.SC_UNAUTHORIZED)).isFalse();
+  }
+
+  @Test
+  public void timeoutsAndConnectionErrorsAreRetryable() {
+    assertThat(RestSession.isRetryable(new SocketTimeoutException())).isTrue();
+    assertThat(RestSession.isRetryable(new ConnectException())).isTrue();
+    assertThat(RestSession.isRetryable(new IOException("Connection reset"))).isTrue();
+  }
+
+  @Test
+  public void interruptsAndPermanentErrorsAreNotRetryable() {
+    assertThat(RestSession.isRetryable(new InterruptedIOException())).isFalse();
+    assertThat(RestSession.isRetryable(new UnknownHostException())).isFalse();
+    assertThat(RestSession.isRetryable(new SSLException("handshake"))).isFalse();
+  }
+
+  @Test
+  public void retryDelayGrowsExponentially() {
+    assertThat(RestSession.retryDelay(0, null)).isAtMost(1000L);
+    assertThat(RestSession.retryDelay(0, null)).isGreaterThan(499L);
+    assertThat(RestSession.retryDelay(2, null)).isAtMost(4000L);
+    assertThat(RestSession.retryDelay(2, null)).isGreaterThan(1999L);
+    assertThat(RestSession.retryDelay(100, null)).isAtMost(30000L);
+  }
+
+  @Test
+  public void retryAfterIsHonored() {
+    assertThat(RestSession.retryDelay(0, "5")).isEqualTo(5000L);
+    // an HTTP date is ignored
+    assertThat(RestSession.retryDelay(0, "Wed, 21 Oct 2015 07:28:00 GMT")).isAtMost(1000L);
+  }
+
+  @Test
+  public void queryIsRemoved() {
+    assertThat(RestSession.endpoint("/changes/?S=0&n=100&q=project:foo&O=81"))
+        .isEqualTo("/changes");
+  }
+
+  @Test
+  public void idsAreReplaced() {
+    assertThat(RestSession.endpoint("/projects/foo%2Fbar")).isEqualTo("/projects/*");
+    assertThat(RestSession.endpoint("/groups/Administrators/detail"))
+        .isEqualTo("/groups/*/detail");
+    assertThat(RestSession.endpoint("/config/server/version")).isEqualTo("/config/*/version");
+    assertThat(RestSession.endpoint("/changes/123/revisions/abc/comments"))
+        .isEqualTo("/changes/*/revisions/*/comments");
+  }
+
+  @Test
+  public void trailingSlashIsIgnored() {
+    assertThat(RestSession.endpoint("/accounts/jdoe/sshkeys/")).isEqualTo("/accounts/*/sshkeys");
+  }
+
+  @Test
+  public void latencyOfQueriesIsNotComparable() {
+    assertThat(RestSession.isLatencyComparable("/changes/?S=0&n=100&q=project:foo")).isFalse();
+  }
+
+  @Test
+  public void latencyOfSizeDependentEndpointsIsNotComparable() {
+    assertThat(RestSession.isLatencyComparable("/changes/123/comments")).isFalse();
+    assertThat(RestSession.isLatencyComparable("/groups/Administrators/detail")).isFalse();
+    assertThat(RestSession.isLatencyComparable("/projects/foo/statistics.git")).isFalse();
+    assertThat(RestSession.isLatencyComparable("/projects/foo")).isTrue();
+    assertThat(RestSession.isLatencyComparable("/config/server/version")).isTrue();
+  }
+
+  @Test
+  public void emptyPathIsRoot() {
+    assertThat(RestSession.endpoint("")).isEqualTo("/");
+    assertThat(RestSession.endpoint("/")).isEqualTo("/");
+    assertThat(RestSession.endpoint("/?q=foo")).isEqualTo("/");
+  }
+
+  private RestSession session(long retryTimeout) {
+    ConnectionConfig cfg =
+        new ConnectionConfig(10, 1024, TimeUnit.MINUTES.toMillis(1), 0, true, 0, 0, retryTimeout);
+    String url = "http://127.0.0.1:" + server.getAddress().getPort();
+    return new RestSession(url, "user", "pass", cfg, null, null, null);
+  }
+}
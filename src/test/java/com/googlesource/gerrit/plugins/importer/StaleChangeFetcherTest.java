@@ -0,0 +1,160 @@
+// Copyright (C) 2015 The Android Open Source Project
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+// http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.googlesource.gerrit.plugins.importer;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ListMultimap;
+import com.google.gerrit.extensions.common.ChangeInfo;
+import com.google.gerrit.extensions.common.CommentInfo;
+import com.google.gerrit.extensions.restapi.BadRequestException;
+import com.googlesource.gerrit.plugins.importer.GerritApi.ChangeStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import org.junit.Test;
+
+public class StaleChangeFetcherTest {
+  /** Returns a detailed copy of each requested change, except of the deleted changes. */
+  private static class FakeAsyncApi implements AsyncGerritApi {
+    final List<List<Integer>> requests = new ArrayList<>();
+    final List<Integer> deleted = new ArrayList<>();
+
+    @Override
+    public CompletableFuture<List<ChangeInfo>> getChanges(Collection<Integer> changeNumbers) {
+      requests.add(new ArrayList<>(changeNumbers));
+      return CompletableFuture.completedFuture(
+          changeNumbers
+              .stream()
+              .filter(n -> !deleted.contains(n))
+              .map(n -> change(n, "detailed"))
+              .collect(Collectors.toList()));
+    }
+
+    @Override
+    public CompletableFuture<ListMultimap<Integer, CommentInfo>> getComments(int changeId) {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /** Counts how many changes of the listing were read. */
+  private static class Listing implements ChangeStream {
+    final ChangeStream changes;
+    int read;
+
+    Listing(int numChanges) {
+      List<ChangeInfo> listed = new ArrayList<>();
+      for (int i = 1; i <= numChanges; i++) {
+        listed.add(change(i, "listed"));
+      }
+      changes = ChangeStream.of(listed);
+    }
+
+    @Override
+    public ChangeInfo next() throws BadRequestException, IOException {
+      ChangeInfo c = changes.next();
+      if (c != null) {
+        read++;
+      }
+      return c;
+    }
+
+    @Override
+    public void close() {}
+  }
+
+  @Test
+  public void unchangedChangesAreReturnedAsListed() throws Exception {
+    FakeAsyncApi api = new FakeAsyncApi();
+    try (StaleChangeFetcher fetcher = new StaleChangeFetcher(api, new Listing(3), c -> true)) {
+      assertThat(ids(fetcher)).containsExactly("1 listed", "2 listed", "3 listed").inOrder();
+    }
+    assertThat(api.requests).isEmpty();
+  }
+
+  @Test
+  public void staleChangesAreFetchedInBatches() throws Exception {
+    FakeAsyncApi api = new FakeAsyncApi();
+    try (StaleChangeFetcher fetcher = new StaleChangeFetcher(api, new Listing(60), c -> false)) {
+      List<String> ids = ids(fetcher);
+      assertThat(ids.size()).isEqualTo(60);
+      assertThat(ids.get(0)).isEqualTo("1 detailed");
+      assertThat(ids.get(59)).isEqualTo("60 detailed");
+    }
+    assertThat(api.requests.size()).isEqualTo(3);
+    assertThat(api.requests.get(0).size()).isEqualTo(ChangeBatchFetcher.BATCH_SIZE);
+    assertThat(api.requests.get(1).size()).isEqualTo(ChangeBatchFetcher.BATCH_SIZE);
+    assertThat(api.requests.get(2).size()).isEqualTo(10);
+  }
+
+  @Test
+  public void onlyStaleChangesAreFetched() throws Exception {
+    FakeAsyncApi api = new FakeAsyncApi();
+    try (StaleChangeFetcher fetcher =
+        new StaleChangeFetcher(api, new Listing(4), c -> c._number % 2 == 0)) {
+      assertThat(ids(fetcher))
+          .containsExactly("1 detailed", "2 listed", "3 detailed", "4 listed")
+          .inOrder();
+    }
+    assertThat(api.requests).containsExactly(Arrays.asList(1, 3));
+  }
+
+  @Test
+  public void detailsOfNextBatchAreRequestedAhead() throws Exception {
+    FakeAsyncApi api = new FakeAsyncApi();
+    try (StaleChangeFetcher fetcher = new StaleChangeFetcher(api, new Listing(60), c -> false)) {
+      fetcher.next();
+      assertThat(api.requests.size()).isEqualTo(2);
+    }
+  }
+
+  @Test
+  public void deletedChangeIsReturnedAsListed() throws Exception {
+    FakeAsyncApi api = new FakeAsyncApi();
+    api.deleted.add(2);
+    try (StaleChangeFetcher fetcher = new StaleChangeFetcher(api, new Listing(3), c -> false)) {
+      assertThat(ids(fetcher)).containsExactly("1 detailed", "2 listed", "3 detailed").inOrder();
+    }
+  }
+
+  @Test
+  public void listingIsReadAheadByAtMostOneWindow() throws Exception {
+    FakeAsyncApi api = new FakeAsyncApi();
+    Listing listing = new Listing(5000);
+    try (StaleChangeFetcher fetcher = new StaleChangeFetcher(api, listing, c -> true)) {
+      fetcher.next();
+      assertThat(listing.read).isAtMost(1000);
+    }
+  }
+
+  private static ChangeInfo change(int number, String state) {
+    ChangeInfo c = new ChangeInfo();
+    c._number = number;
+    c.id = number + " " + state;
+    return c;
+  }
+
+  private static List<String> ids(ChangeStream changes) throws Exception {
+    List<String> ids = new ArrayList<>();
+    for (ChangeInfo c = changes.next(); c != null; c = changes.next()) {
+      ids.add(c.id);
+    }
+    return ids;
+  }
+}